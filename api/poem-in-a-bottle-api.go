@@ -8,6 +8,7 @@ import (
 	"math/rand"
 	"net/http"
 	"os"
+	"sort"
 	"strings"
 
 	"github.com/gin-gonic/gin"
@@ -142,6 +143,16 @@ func (p *Publisher) setupRouter(r *gin.Engine) {
 	r.GET("/poem/:theme", p.getPoemByTheme)
 	r.GET("/poem", p.getPoem)
 	r.POST("/sentence", p.postSentence)
+	r.GET("/themes", p.getThemes)
+}
+
+func (p *Publisher) getThemes(c *gin.Context) {
+	themes := make([]string, 0, len(queueNames))
+	for theme := range queueNames {
+		themes = append(themes, theme)
+	}
+	sort.Strings(themes)
+	c.JSON(http.StatusOK, gin.H{"themes": themes})
 }
 
 func (p *Publisher) getPoemByTheme(c *gin.Context) {
@@ -0,0 +1,66 @@
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When requests arrive in open-loop mode, as offsets from the start of the run.
+ */
+public enum ArrivalPattern {
+  // The target rate throughout
+  CONSTANT,
+  // STEPS equal steps up to the target rate, e.g. 20%, 40%, ... 100% of it for a fifth of the run each
+  STEP,
+  // Exponentially distributed gaps averaging the target rate, as from many independent users
+  POISSON,
+  // The target rate, except SPIKE_FACTOR times it for a tenth of the run starting halfway through
+  SPIKE;
+
+  private static final int STEPS = 5;
+  private static final int SPIKE_FACTOR = 5;
+
+  /**
+   * @param name The pattern name, ignoring case
+   * @throws IllegalArgumentException if there is no pattern with that name
+   */
+  public static ArrivalPattern parse(String name) {
+    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Get the rate at a point of the run
+   *
+   * @param offsetNanos The time since the start of the run
+   * @param rate The target rate in requests per second
+   * @param durationNanos The length of the run
+   * @return The rate in requests per second
+   */
+  public double rateAt(long offsetNanos, double rate, long durationNanos) {
+    switch (this) {
+      case STEP:
+        long step = Math.min(STEPS - 1, offsetNanos * STEPS / durationNanos);
+        return rate * (step + 1) / STEPS;
+      case SPIKE:
+        long spikeStart = durationNanos / 2;
+        boolean inSpike = offsetNanos >= spikeStart && offsetNanos < spikeStart + durationNanos / 10;
+        return inSpike ? rate * SPIKE_FACTOR : rate;
+      default:
+        return rate;
+    }
+  }
+
+  /**
+   * Get the intended send time of the next request
+   *
+   * @param offsetNanos The intended send time of the previous request, since the start of the run
+   * @param rate The target rate in requests per second
+   * @param durationNanos The length of the run
+   * @return The intended send time of the next request, since the start of the run
+   */
+  public long nextOffset(long offsetNanos, double rate, long durationNanos) {
+    double meanGapNanos = 1e9 / rateAt(offsetNanos, rate, durationNanos);
+    if (this == POISSON) {
+      // Inverse transform sampling of the exponential distribution
+      return offsetNanos + (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanGapNanos);
+    }
+    return offsetNanos + Math.max(1, (long) meanGapNanos);
+  }
+}
@@ -0,0 +1,289 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending requests to a server that is failing or too slow, and lets a few probe
+ * requests through after a cooldown to find out whether it has recovered.
+ *
+ * Outcomes are counted in a sliding window of one-second buckets. The breaker opens once
+ * the window holds at least minRequests outcomes of which failureRate or more failed,
+ * where a failure is an error response, an exception or a response slower than
+ * slowCallMillis. While open, requests are refused. After the cooldown it half-opens and
+ * lets probeRequests requests through: it closes if they all succeed and opens again at
+ * the first failure.
+ *
+ * The state and the time it was entered are packed into one AtomicLong and changed by
+ * compare-and-set, and the buckets are replaced the same way, so any number of threads
+ * can share a breaker without locking. Every change stores a later time than the last, so
+ * the packed value also names the breaker's generation: a request is tagged with it when
+ * sent, and its outcome only counts if the breaker hasn't changed state since. Late
+ * answers to requests sent before the breaker opened can't close it again. Each half-open
+ * generation gets its own probe counters, installed by the one thread whose compare-and-set
+ * half-opened the breaker, so threads that lost that race can't reset them.
+ */
+public class CircuitBreaker {
+  private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+  private static final int CLOSED = 0;
+  private static final int OPEN = 1;
+  private static final int HALF_OPEN = 2;
+  // How often users waiting for a half-open breaker ask again
+  private static final long HALF_OPEN_RETRY_MS = 100;
+
+  private static final class Bucket {
+    private final long second;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private Bucket(long second) {
+      this.second = second;
+    }
+  }
+
+  // The probes of one half-open generation, created only by the thread that half-opened it
+  private static final class Probes {
+    private final long generation;
+    private final AtomicInteger left;
+    private final AtomicInteger succeeded = new AtomicInteger();
+
+    private Probes(long generation, int probeRequests) {
+      this.generation = generation;
+      this.left = new AtomicInteger(probeRequests);
+    }
+  }
+
+  private final AtomicReferenceArray<Bucket> window;
+  private final int minRequests;
+  private final double failureRate;
+  private final long slowCallMillis;
+  private final long cooldownMillis;
+  private final int probeRequests;
+
+  // The state in the low 2 bits, the epoch milliseconds it was entered in the rest
+  private final AtomicLong status = new AtomicLong(pack(CLOSED, 0));
+  // The probes of the current half-open generation, or of an earlier one
+  private final AtomicReference<Probes> probes = new AtomicReference<>();
+  // When the breaker opened after last being closed
+  private volatile long trippedAt;
+  private final AtomicInteger timesOpened = new AtomicInteger();
+  private final AtomicLong openMillis = new AtomicLong();
+  private final AtomicLong shedRequests = new AtomicLong();
+
+  /**
+   * @param windowSeconds The length of the sliding window
+   * @param minRequests The fewest outcomes in the window that can open the breaker
+   * @param failureRate The fraction of failed outcomes in the window that opens the breaker
+   * @param slowCallMillis Responses slower than this count as failures
+   * @param cooldownMillis How long the breaker stays open before probing
+   * @param probeRequests How many requests the half-open breaker lets through
+   */
+  public CircuitBreaker(int windowSeconds, int minRequests, double failureRate,
+                        long slowCallMillis, long cooldownMillis, int probeRequests) {
+    this.window = new AtomicReferenceArray<>(windowSeconds);
+    this.minRequests = minRequests;
+    this.failureRate = failureRate;
+    this.slowCallMillis = slowCallMillis;
+    this.cooldownMillis = cooldownMillis;
+    this.probeRequests = probeRequests;
+  }
+
+  /**
+   * Ask to send a request, half-opening the breaker if the cooldown is over
+   *
+   * @return Whether the request may be sent
+   */
+  public boolean allowRequest() {
+    while (true) {
+      long current = status.get();
+      switch (stateOf(current)) {
+        case CLOSED:
+          return true;
+        case HALF_OPEN:
+          Probes halfOpen = probes.get();
+          // None until the thread that half-opened the breaker installs its probes
+          return halfOpen != null && halfOpen.generation == current
+              && halfOpen.left.getAndDecrement() > 0;
+        default:
+          long now = System.currentTimeMillis();
+          if (now - timeOf(current) < cooldownMillis) {
+            return false;
+          }
+          long generation = next(current, HALF_OPEN, now);
+          if (status.compareAndSet(current, generation)) {
+            probes.set(new Probes(generation, probeRequests));
+            logger.info("Circuit breaker half-open, probing the server...");
+          }
+      }
+    }
+  }
+
+  /**
+   * Count a request that was dropped because allowRequest refused it
+   */
+  public void shed() {
+    shedRequests.incrementAndGet();
+  }
+
+  /**
+   * @return How long to wait before asking allowRequest again, 0 if the breaker is closed
+   */
+  public long millisUntilRetry() {
+    long current = status.get();
+    switch (stateOf(current)) {
+      case CLOSED:
+        return 0;
+      case HALF_OPEN:
+        return HALF_OPEN_RETRY_MS;
+      default:
+        return Math.max(1, timeOf(current) + cooldownMillis - System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * @return The breaker's generation, to pass to record() with the outcome of a request
+   *         sent now
+   */
+  public long generation() {
+    return status.get();
+  }
+
+  /**
+   * Record the outcome of a request that allowRequest let through
+   *
+   * @param generation What generation() returned when the request was sent
+   * @param successful Whether the server answered with a 2xx response
+   * @param latencyMillis How long the server took to answer
+   */
+  public void record(long generation, boolean successful, long latencyMillis) {
+    boolean failed = !successful || latencyMillis > slowCallMillis;
+    long current = status.get();
+    if (current != generation) {
+      // Sent before the breaker last changed state, so it says nothing about this one
+      return;
+    }
+    long now = System.currentTimeMillis();
+    switch (stateOf(current)) {
+      case HALF_OPEN:
+        if (failed) {
+          if (status.compareAndSet(current, next(current, OPEN, now))) {
+            logger.info("Circuit breaker probe failed, pausing requests again.");
+          }
+          return;
+        }
+        Probes halfOpen = probes.get();
+        if (halfOpen != null && halfOpen.generation == current
+            && halfOpen.succeeded.incrementAndGet() >= probeRequests
+            && status.compareAndSet(current, next(current, CLOSED, now))) {
+          openMillis.addAndGet(now - trippedAt);
+          for (int i = 0; i < window.length(); i++) {
+            window.set(i, null);
+          }
+          logger.info("Circuit breaker recovered!");
+        }
+        return;
+      case OPEN:
+        // The answer to a request sent just as the breaker opened
+        return;
+      default:
+        long second = now / 1000;
+        Bucket bucket = bucket(second);
+        if (bucket == null) {
+          return;
+        }
+        bucket.requests.incrementAndGet();
+        if (failed) {
+          bucket.failures.incrementAndGet();
+          if (shouldOpen(second) && status.compareAndSet(current, next(current, OPEN, now))) {
+            trippedAt = now;
+            timesOpened.incrementAndGet();
+            logger.info("Circuit breaker tripped! Pausing requests.");
+          }
+        }
+    }
+  }
+
+  /**
+   * @return The current state: closed, open or half-open
+   */
+  public String getState() {
+    switch (stateOf(status.get())) {
+      case CLOSED:
+        return "closed";
+      case HALF_OPEN:
+        return "half-open";
+      default:
+        return "open";
+    }
+  }
+
+  /**
+   * @return How many times the breaker opened after being closed
+   */
+  public int getTimesOpened() {
+    return timesOpened.get();
+  }
+
+  /**
+   * @return How long the breaker has been open or half-open in total, in milliseconds
+   */
+  public long getOpenMillis() {
+    long current = status.get();
+    long open = openMillis.get();
+    return stateOf(current) == CLOSED ? open : open + System.currentTimeMillis() - trippedAt;
+  }
+
+  /**
+   * @return How many requests were dropped while the breaker was open
+   */
+  public long getShedRequests() {
+    return shedRequests.get();
+  }
+
+  // The bucket for this second, replacing the one it reuses from an earlier pass of the
+  // window, or null if a thread that read the clock later already moved past this second
+  private Bucket bucket(long second) {
+    int index = (int) (second % window.length());
+    while (true) {
+      Bucket bucket = window.get(index);
+      if (bucket != null && bucket.second >= second) {
+        return bucket.second == second ? bucket : null;
+      }
+      Bucket fresh = new Bucket(second);
+      if (window.compareAndSet(index, bucket, fresh)) {
+        return fresh;
+      }
+    }
+  }
+
+  private boolean shouldOpen(long second) {
+    long requests = 0;
+    long failures = 0;
+    for (int i = 0; i < window.length(); i++) {
+      Bucket bucket = window.get(i);
+      if (bucket != null && second - bucket.second < window.length()) {
+        requests += bucket.requests.get();
+        failures += bucket.failures.get();
+      }
+    }
+    return requests >= minRequests && failures >= failureRate * requests;
+  }
+
+  private static long pack(int state, long millis) {
+    return millis << 2 | state;
+  }
+
+  // The status for a change to state now, later than current even within one millisecond
+  private static long next(long current, int state, long now) {
+    return pack(state, Math.max(now, timeOf(current) + 1));
+  }
+
+  private static int stateOf(long status) {
+    return (int) (status & 3);
+  }
+
+  private static long timeOf(long status) {
+    return status >>> 2;
+  }
+}
@@ -0,0 +1,370 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.json.JSONObject;
+
+/**
+ * Runs one load test from several client processes or machines.
+ *
+ * The coordinator waits for the given number of workers to connect, then releases all of
+ * them at once: every worker starts its main phase at the same wall-clock time,
+ * START_DELAY_MS after the coordinator sent the start messages, with an equal share of the
+ * target rate if the coordinator was given one. The machines' clocks should be
+ * synchronized, e.g. by NTP, or each worker starts off by its clock's offset.
+ *
+ * While it runs, a worker streams the histograms and failures of each LiveMetrics
+ * interval, and when it is done it sends back its RunSummary. The coordinator merges them
+ * bucket by bucket, so the percentiles of the whole test are exact, not stitched together
+ * from each worker's percentiles. A worker that dies or goes silent is counted by the
+ * intervals it streamed, so only its last interval is lost.
+ *
+ * Messages are JSON objects, one per line, over TCP: a worker sends "ready", the
+ * coordinator answers "start", and the worker sends "interval" messages and finishes with
+ * "summary". If not enough workers join within JOIN_TIMEOUT_MS the coordinator aborts.
+ */
+public class Coordinator {
+  private static final Logger logger = Logger.getLogger(Coordinator.class.getName());
+  // Long enough for the start message to reach every worker
+  private static final long START_DELAY_MS = 1000;
+  private static final long JOIN_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+  private static final long JOIN_RETRY_MS = 1000;
+  // A worker sends "ready" as soon as it connects
+  private static final int READY_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+  // Longer than any pause between a worker's messages while it runs, other than its intervals
+  private static final long SILENCE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+  // How many of a worker's intervals may pass without a message before it counts as dead
+  private static final int SILENT_INTERVALS = 3;
+
+  private final int port;
+  private final int workers;
+  private final double rate;
+
+  /**
+   * @param port The port workers connect to
+   * @param workers The number of workers to wait for
+   * @param rate The total open-loop rate in requests/sec to split between the workers, or 0 to
+   *             let each worker use its own settings
+   */
+  public Coordinator(int port, int workers, double rate) {
+    this.port = port;
+    this.workers = workers;
+    this.rate = rate;
+  }
+
+  /**
+   * Wait for the workers, start them together and merge their summaries
+   *
+   * @param timeoutMinutes How long to wait for the workers to finish once started
+   * @return The merged summary, or null if no worker sent anything
+   * @throws IOException if not all workers joined in time
+   */
+  public RunSummary run(long timeoutMinutes) throws IOException {
+    List<Connection> connections = new ArrayList<>();
+    try (ServerSocket server = new ServerSocket(port)) {
+      logger.info(String.format("Waiting for %d workers on port %d...", workers, port));
+      long joinDeadline = System.currentTimeMillis() + JOIN_TIMEOUT_MS;
+      while (connections.size() < workers) {
+        long left = joinDeadline - System.currentTimeMillis();
+        Connection connection;
+        try {
+          server.setSoTimeout((int) Math.max(1, left));
+          connection = new Connection(server.accept());
+        } catch (SocketTimeoutException e) {
+          throw new IOException(String.format("Only %d of %d workers joined within %d s, aborting",
+              connections.size(), workers, TimeUnit.MILLISECONDS.toSeconds(JOIN_TIMEOUT_MS)));
+        }
+        try {
+          connection.socket.setSoTimeout(READY_TIMEOUT_MS);
+          JSONObject ready = connection.expect("ready");
+          connection.silenceTimeoutMillis = Math.max(SILENCE_TIMEOUT_MS, SILENT_INTERVALS
+              * TimeUnit.SECONDS.toMillis(ready.optInt("intervalSeconds", 1)));
+        } catch (IOException | RuntimeException e) {
+          // Not a worker, such as a stray connection sending something other than JSON
+          logger.warning(String.format("Ignoring %s: %s", connection.address(), e.getMessage()));
+          connection.close();
+          continue;
+        }
+        connections.add(connection);
+        logger.info(String.format("Worker %d of %d ready (%s)", connections.size(), workers,
+            connection.address()));
+      }
+
+      long startAt = System.currentTimeMillis() + START_DELAY_MS;
+      for (int i = 0; i < connections.size(); i++) {
+        JSONObject start = new JSONObject()
+            .put("type", "start")
+            .put("worker", i)
+            .put("workers", workers)
+            .put("startAtMillis", startAt);
+        if (rate > 0) {
+          start.put("rate", rate / workers);
+        }
+        connections.get(i).send(start);
+      }
+      logger.info("All workers started.");
+
+      long deadline = startAt + TimeUnit.MINUTES.toMillis(timeoutMinutes);
+      List<CompletableFuture<RunSummary>> summaries = new ArrayList<>();
+      for (int i = 0; i < connections.size(); i++) {
+        int worker = i;
+        CompletableFuture<RunSummary> summary = new CompletableFuture<>();
+        Thread thread = new Thread(() -> summary.complete(
+            follow(worker, connections.get(worker), startAt, deadline)), "worker-" + (i + 1));
+        thread.setDaemon(true);
+        thread.start();
+        summaries.add(summary);
+      }
+
+      RunSummary merged = null;
+      for (CompletableFuture<RunSummary> result : summaries) {
+        RunSummary summary = result.join();
+        if (summary != null) {
+          merged = merged == null ? summary : merged.merge(summary);
+        }
+      }
+      return merged;
+    } finally {
+      for (Connection connection : connections) {
+        connection.close();
+      }
+    }
+  }
+
+  // Read a worker's intervals until its summary, falling back on the intervals if it fails
+  private static RunSummary follow(int worker, Connection connection, long startAt,
+                                   long deadline) {
+    LatencyHistogram post = new LatencyHistogram();
+    LatencyHistogram get = new LatencyHistogram();
+    long failedRequests = 0;
+    int intervals = 0;
+    long lastInterval = startAt;
+    try {
+      while (true) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+          throw new IOException("Timed out waiting for the summary");
+        }
+        connection.socket.setSoTimeout((int) Math.min(left, connection.silenceTimeoutMillis));
+        JSONObject message = connection.receive("an interval or the summary");
+        String type = message.optString("type");
+        if (type.equals("summary")) {
+          RunSummary summary = RunSummary.fromJson(message.getJSONObject("summary"));
+          logger.info(String.format("Worker %d finished: %d successful, %d failed requests",
+              worker + 1, summary.getOverall().getCount(), summary.getFailedRequests()));
+          return summary;
+        }
+        if (!type.equals("interval")) {
+          throw new IOException("Expected interval or summary, got " + type);
+        }
+        post.add(LatencyHistogram.fromJson(message.getJSONObject("post")));
+        get.add(LatencyHistogram.fromJson(message.getJSONObject("get")));
+        failedRequests += message.getLong("failedRequests");
+        intervals++;
+        lastInterval = System.currentTimeMillis();
+      }
+    } catch (IOException | RuntimeException e) {
+      if (intervals == 0) {
+        logger.warning(String.format("Worker %d (%s) failed, leaving it out of the report: %s",
+            worker + 1, connection.address(), e.getMessage()));
+        return null;
+      }
+      logger.warning(String.format("Worker %d (%s) failed, reporting the %d intervals it sent: %s",
+          worker + 1, connection.address(), intervals, e.getMessage()));
+      return new RunSummary(Math.max(0, lastInterval - startAt), 0, failedRequests, post, get,
+          null);
+    }
+  }
+
+  /**
+   * What the coordinator told a worker
+   */
+  public static final class Start {
+    private final int worker;
+    private final int workers;
+    private final long startAtMillis;
+    private final double rate;
+
+    private Start(JSONObject json) {
+      this.worker = json.getInt("worker");
+      this.workers = json.getInt("workers");
+      this.startAtMillis = json.getLong("startAtMillis");
+      this.rate = json.optDouble("rate", 0);
+    }
+
+    /**
+     * @return This worker's number, from 0
+     */
+    public int getWorker() {
+      return worker;
+    }
+
+    public int getWorkers() {
+      return workers;
+    }
+
+    /**
+     * @return When every worker starts its main phase, in epoch milliseconds
+     */
+    public long getStartAtMillis() {
+      return startAtMillis;
+    }
+
+    /**
+     * @return This worker's open-loop rate in requests/sec, or 0 to use its own settings
+     */
+    public double getRate() {
+      return rate;
+    }
+  }
+
+  /**
+   * A worker's connection to the coordinator
+   */
+  public static final class Worker implements Closeable {
+    private final Connection connection;
+
+    private Worker(Connection connection) {
+      this.connection = connection;
+    }
+
+    /**
+     * Connect to a coordinator, retrying for a while if it is not listening yet
+     *
+     * @param address The coordinator's host:port
+     */
+    public static Worker join(String address) throws IOException {
+      int colon = address.lastIndexOf(':');
+      if (colon < 0) {
+        throw new IllegalArgumentException("Expected host:port, got " + address);
+      }
+      InetSocketAddress socketAddress = new InetSocketAddress(address.substring(0, colon),
+          Integer.parseInt(address.substring(colon + 1)));
+      long deadline = System.currentTimeMillis() + JOIN_TIMEOUT_MS;
+      while (true) {
+        Socket socket = new Socket();
+        try {
+          socket.connect(socketAddress);
+          return new Worker(new Connection(socket));
+        } catch (ConnectException e) {
+          socket.close();
+          if (System.currentTimeMillis() >= deadline) {
+            throw e;
+          }
+          try {
+            Thread.sleep(JOIN_RETRY_MS);
+          } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw e;
+          }
+        }
+      }
+    }
+
+    /**
+     * Tell the coordinator this worker is ready and wait until every worker is
+     *
+     * @param intervalSeconds How often this worker will send an interval, so the coordinator
+     *                        knows how long it may stay silent
+     * @return The start message
+     * @throws IOException if the coordinator gave up or didn't answer within JOIN_TIMEOUT_MS
+     */
+    public Start awaitStart(int intervalSeconds) throws IOException {
+      connection.send(new JSONObject()
+          .put("type", "ready")
+          .put("intervalSeconds", intervalSeconds));
+      connection.socket.setSoTimeout((int) JOIN_TIMEOUT_MS);
+      Start start = new Start(connection.expect("start"));
+      connection.socket.setSoTimeout(0);
+      return start;
+    }
+
+    /**
+     * Send the latencies and failures of one interval of the main phase
+     */
+    public void sendInterval(LatencyHistogram post, LatencyHistogram get, long failedRequests)
+        throws IOException {
+      connection.send(new JSONObject()
+          .put("type", "interval")
+          .put("post", post.toJson())
+          .put("get", get.toJson())
+          .put("failedRequests", failedRequests));
+    }
+
+    /**
+     * Send this worker's summary once its main phase is over
+     */
+    public void send(RunSummary summary) throws IOException {
+      connection.send(new JSONObject().put("type", "summary").put("summary", summary.toJson()));
+    }
+
+    @Override
+    public void close() throws IOException {
+      connection.close();
+    }
+  }
+
+  private static final class Connection implements Closeable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final BufferedWriter out;
+    // How long the worker may send nothing while it runs, from the interval in its "ready"
+    private long silenceTimeoutMillis = SILENCE_TIMEOUT_MS;
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+          StandardCharsets.UTF_8));
+      this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+          StandardCharsets.UTF_8));
+    }
+
+    private String address() {
+      return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    private synchronized void send(JSONObject message) throws IOException {
+      out.write(message.toString());
+      out.write('\n');
+      out.flush();
+    }
+
+    // Read the next message, which must be of the given type
+    private JSONObject expect(String type) throws IOException {
+      JSONObject message = receive(type);
+      if (!type.equals(message.optString("type"))) {
+        throw new IOException("Expected " + type + ", got " + message.optString("type"));
+      }
+      return message;
+    }
+
+    private JSONObject receive(String expected) throws IOException {
+      String line = in.readLine();
+      if (line == null) {
+        throw new IOException("Connection closed while waiting for " + expected);
+      }
+      return new JSONObject(line);
+    }
+
+    @Override
+    public void close() {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How the load test runs its users and sends its requests.
+ */
+public enum Engine {
+  // A platform thread per user or open-loop worker, blocking on Apache HttpClient
+  THREADS,
+  // A virtual thread per user or open-loop request, blocking on Apache HttpClient; needs Java 21
+  VIRTUAL,
+  // No thread per request: the JDK's non-blocking HttpClient, with each user's requests chained
+  ASYNC;
+
+  /**
+   * @param name The engine name, ignoring case
+   * @throws IllegalArgumentException if there is no engine with that name
+   */
+  public static Engine parse(String name) {
+    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Create the executor that runs the blocking users and requests of this engine
+   *
+   * @return A new executor, or null for ASYNC, which needs none
+   * @throws IllegalStateException if virtual threads are not available
+   */
+  public ExecutorService newExecutor() {
+    switch (this) {
+      case THREADS:
+        return Executors.newCachedThreadPool();
+      case VIRTUAL:
+        // Looked up at runtime so that the client still builds and runs on Java 11
+        try {
+          return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+              .invoke(null);
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalStateException("The virtual engine needs Java 21 or later, running on "
+              + System.getProperty("java.version"), e);
+        }
+      default:
+        return null;
+    }
+  }
+}
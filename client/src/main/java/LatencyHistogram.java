@@ -0,0 +1,171 @@
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Latency histogram with the bucket layout of HdrHistogram at three significant digits.
+ *
+ * Latencies up to 2047 ms are counted exactly; above that each power of two is split
+ * into 1024 buckets, so a percentile is off by at most 0.1%. Min, max, count and sum are
+ * kept exactly. Recording is an array increment; a histogram is written by one thread
+ * and merged into another with add(). Histograms from other processes are merged the
+ * same way after a round trip through toJson() and fromJson(), so merged percentiles are
+ * as exact as local ones.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 10;
+  private static final int LINEAR_LIMIT = 1 << (SUB_BUCKET_BITS + 1);
+  // About 70 minutes; longer latencies are counted in the last bucket
+  private static final long MAX_VALUE = (1L << 22) - 1;
+  static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  public void record(long latency) {
+    long value = Math.max(0, latency);
+    counts[bucketOf(value)]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add every latency recorded by another histogram to this one
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Add latencies counted elsewhere in this histogram's layout, see bucketOf()
+   *
+   * @param index The bucket
+   * @param bucketCount The number of latencies in it
+   */
+  void addBucket(int index, long bucketCount) {
+    counts[index] += bucketCount;
+  }
+
+  /**
+   * Add the count, sum, min and max of latencies added with addBucket()
+   */
+  void addTotals(long count, long sum, long min, long max) {
+    this.count += count;
+    this.sum += sum;
+    this.min = Math.min(this.min, min);
+    this.max = Math.max(this.max, max);
+  }
+
+  /**
+   * @param value A latency, not negative
+   * @return The index of the bucket it is counted in, less than BUCKETS
+   */
+  static int bucketOf(long value) {
+    return indexOf(Math.min(value, MAX_VALUE));
+  }
+
+  /**
+   * @return The histogram as JSON, with the non-empty buckets as a flat [index, count, ...] array
+   */
+  public JSONObject toJson() {
+    JSONArray buckets = new JSONArray();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        buckets.put(i).put(counts[i]);
+      }
+    }
+    return new JSONObject()
+        .put("count", count)
+        .put("sum", sum)
+        .put("min", min)
+        .put("max", max)
+        .put("buckets", buckets);
+  }
+
+  /**
+   * Read a histogram written by toJson()
+   *
+   * @throws org.json.JSONException if the JSON is not a histogram
+   */
+  public static LatencyHistogram fromJson(JSONObject json) {
+    LatencyHistogram histogram = new LatencyHistogram();
+    JSONArray buckets = json.getJSONArray("buckets");
+    for (int i = 0; i + 1 < buckets.length(); i += 2) {
+      histogram.counts[buckets.getInt(i)] = buckets.getLong(i + 1);
+    }
+    histogram.count = json.getLong("count");
+    histogram.sum = json.getLong("sum");
+    histogram.min = json.getLong("min");
+    histogram.max = json.getLong("max");
+    return histogram;
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMin() {
+    return count == 0 ? 0 : min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : sum / (double) count;
+  }
+
+  /**
+   * @param percentile The percentile, between 0 and 100
+   * @return The latency at or below which the given percentage of latencies fall, or 0 if none
+   *         were recorded
+   */
+  public long getPercentile(double percentile) {
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length && count > 0; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestValueAt(i), max);
+      }
+    }
+    return 0;
+  }
+
+  private static int indexOf(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+  }
+
+  private static long highestValueAt(int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+    int shift = (index >> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,282 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-thread latency counts for each request type, merged when the report is made.
+ *
+ * Each sending thread records into its own counts, so recording takes no lock and shares
+ * no cache line with other threads. A thread takes over the recorder of a thread that has
+ * ended, so pools that keep replacing their threads don't add a recorder each time.
+ * Virtual threads are too many and too short-lived for one recorder each, so with them a
+ * fixed set of shared recorders is used instead, picked by thread id and locked while
+ * recording.
+ *
+ * A recorder counts each latency once, in the bucket layout of LatencyHistogram but with
+ * int counts allocated a chunk of buckets at a time, so a thread whose latencies span a
+ * few octaves holds a few KB rather than a full histogram per request type. interval()
+ * and merged() drain every recorder into the run's histograms: they swap in empty counts
+ * and wait for a write already under way to finish before reading the old ones, so the
+ * owner thread still records without a lock.
+ *
+ * Nothing is allocated once the threads have warmed up: each recorder has two slots of
+ * counts that trade places on every drain, the drained one emptied as it is read, and
+ * interval() reuses the same histograms for its results.
+ */
+public class LatencyRecorder {
+  // Copied on write, so draining iterates it without allocating
+  private static volatile LatencyRecorder[] recorders = new LatencyRecorder[0];
+  // Guards adding to recorders, apart from the class lock so a drain doesn't hold up new threads
+  private static final Object adding = new Object();
+  private static final ThreadLocal<LatencyRecorder> current =
+      ThreadLocal.withInitial(LatencyRecorder::claim);
+  // Set by shareBetweenThreads, a power of two in length
+  private static volatile LatencyRecorder[] shared;
+  // Everything drained from the recorders so far, guarded by the class lock
+  private static final LatencyHistogram totalPost = new LatencyHistogram();
+  private static final LatencyHistogram totalGet = new LatencyHistogram();
+  // Filled by interval(), guarded by the class lock
+  private static final LatencyHistogram interval = new LatencyHistogram();
+  private static final LatencyHistogram intervalPost = new LatencyHistogram();
+  private static final LatencyHistogram intervalGet = new LatencyHistogram();
+
+  // The thread recording into this, or null for a shared recorder
+  private final AtomicReference<Thread> owner;
+  // The latencies since the last drain, swapped with spare by it
+  private volatile Slot active = new Slot();
+  // Empty, only touched by a drain under the class lock
+  private Slot spare = new Slot();
+  // Set while the owner thread records, checked by a drain after swapping slots
+  private volatile boolean recording;
+
+  private static final class Slot {
+    private final Counts post = new Counts();
+    private final Counts get = new Counts();
+  }
+
+  // Bucket counts in the layout of LatencyHistogram, allocated a chunk at a time
+  private static final class Counts {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final int[][] chunks =
+        new int[(LatencyHistogram.BUCKETS + CHUNK_MASK) >>> CHUNK_BITS][];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    // The range of buckets counted in, so draining skips the rest
+    private int lowest = Integer.MAX_VALUE;
+    private int highest = -1;
+
+    private void record(long latency) {
+      long value = Math.max(0, latency);
+      int index = LatencyHistogram.bucketOf(value);
+      int[] chunk = chunks[index >>> CHUNK_BITS];
+      if (chunk == null) {
+        chunk = new int[CHUNK_MASK + 1];
+        chunks[index >>> CHUNK_BITS] = chunk;
+      }
+      chunk[index & CHUNK_MASK]++;
+      count++;
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      lowest = Math.min(lowest, index);
+      highest = Math.max(highest, index);
+    }
+
+    // Add the counts to the histograms given, either may be null, and start over
+    private void drainInto(LatencyHistogram first, LatencyHistogram second) {
+      if (count == 0) {
+        return;
+      }
+      for (int index = lowest; index <= highest; index++) {
+        int[] chunk = chunks[index >>> CHUNK_BITS];
+        if (chunk == null) {
+          index |= CHUNK_MASK;
+          continue;
+        }
+        int bucketCount = chunk[index & CHUNK_MASK];
+        if (bucketCount != 0) {
+          chunk[index & CHUNK_MASK] = 0;
+          if (first != null) {
+            first.addBucket(index, bucketCount);
+          }
+          if (second != null) {
+            second.addBucket(index, bucketCount);
+          }
+        }
+      }
+      if (first != null) {
+        first.addTotals(count, sum, min, max);
+      }
+      if (second != null) {
+        second.addTotals(count, sum, min, max);
+      }
+      count = 0;
+      sum = 0;
+      min = Long.MAX_VALUE;
+      max = 0;
+      lowest = Integer.MAX_VALUE;
+      highest = -1;
+    }
+  }
+
+  private LatencyRecorder(Thread owner) {
+    this.owner = new AtomicReference<>(owner);
+  }
+
+  // Take over the recorder of an ended thread, or add a new one for the calling thread
+  private static LatencyRecorder claim() {
+    Thread thread = Thread.currentThread();
+    for (LatencyRecorder recorder : recorders) {
+      Thread previous = recorder.owner.get();
+      // Pools such as the common ForkJoinPool may clear a thread's locals between tasks
+      if (previous == thread) {
+        return recorder;
+      }
+      // Seeing the previous owner has ended also makes everything it recorded visible here
+      if (previous != null && !previous.isAlive() && recorder.owner.compareAndSet(previous, thread)) {
+        return recorder;
+      }
+    }
+    LatencyRecorder recorder = new LatencyRecorder(thread);
+    add(recorder);
+    return recorder;
+  }
+
+  private static void add(LatencyRecorder recorder) {
+    synchronized (adding) {
+      LatencyRecorder[] added = Arrays.copyOf(recorders, recorders.length + 1);
+      added[added.length - 1] = recorder;
+      recorders = added;
+    }
+  }
+
+  /**
+   * Record into shared recorders rather than one per thread from now on, for when requests
+   * are sent from virtual threads. Only call before any requests are sent.
+   */
+  public static void shareBetweenThreads() {
+    int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) * 2;
+    LatencyRecorder[] stripe = new LatencyRecorder[stripes];
+    for (int i = 0; i < stripes; i++) {
+      stripe[i] = new LatencyRecorder(null);
+      add(stripe[i]);
+    }
+    shared = stripe;
+  }
+
+  /**
+   * Record the latency of a successful request on the calling thread
+   *
+   * @param method The request method, POST or GET
+   * @param latency The latency in milliseconds
+   */
+  public static void record(String method, long latency) {
+    LatencyRecorder[] stripe = shared;
+    if (stripe == null) {
+      LatencyRecorder recorder = current.get();
+      // Set before reading active, so a drain either sees this write under way or swapped
+      // the slot before it started
+      recorder.recording = true;
+      Slot slot = recorder.active;
+      (method.equals("POST") ? slot.post : slot.get).record(latency);
+      recorder.recording = false;
+      return;
+    }
+
+    LatencyRecorder recorder =
+        stripe[(int) Thread.currentThread().getId() & (stripe.length - 1)];
+    synchronized (recorder) {
+      Slot slot = recorder.active;
+      (method.equals("POST") ? slot.post : slot.get).record(latency);
+    }
+  }
+
+  // Swap in the empty spare slot and return the active one once no write to it is under
+  // way. The caller empties it by draining it, and it becomes the next spare.
+  private Slot take() {
+    Slot taken;
+    if (owner.get() == null) {
+      synchronized (this) {
+        taken = active;
+        active = spare;
+      }
+    } else {
+      taken = active;
+      active = spare;
+      while (recording) {
+        Thread.yield();
+      }
+    }
+    spare = taken;
+    return taken;
+  }
+
+  /**
+   * Merge the latencies every thread recorded since the last call and start a new interval.
+   * Safe to call while requests are being sent, from one thread at a time.
+   *
+   * @return The latencies of both request types in the interval, in a histogram that is
+   *         reused by the next call
+   */
+  public static synchronized LatencyHistogram interval() {
+    intervalPost.reset();
+    intervalGet.reset();
+    for (LatencyRecorder recorder : recorders) {
+      Slot slot = recorder.take();
+      slot.post.drainInto(totalPost, intervalPost);
+      slot.get.drainInto(totalGet, intervalGet);
+    }
+    interval.reset();
+    interval.add(intervalPost);
+    interval.add(intervalGet);
+    return interval;
+  }
+
+  /**
+   * @param method The request method, POST or GET
+   * @return The latencies of that request type in the interval the last interval() call
+   *         returned, in a histogram that is reused by the next call
+   */
+  public static synchronized LatencyHistogram lastInterval(String method) {
+    return method.equals("POST") ? intervalPost : intervalGet;
+  }
+
+  /**
+   * Forget every latency recorded so far. Only call while no requests are being sent.
+   */
+  public static synchronized void reset() {
+    for (LatencyRecorder recorder : recorders) {
+      Slot slot = recorder.take();
+      slot.post.drainInto(null, null);
+      slot.get.drainInto(null, null);
+    }
+    totalPost.reset();
+    totalGet.reset();
+  }
+
+  /**
+   * Merge the latencies recorded by every thread so far. Call once no requests are being
+   * sent for the complete run.
+   *
+   * @param method The request method, or null for every request
+   * @return A new histogram with the merged latencies
+   */
+  public static synchronized LatencyHistogram merged(String method) {
+    for (LatencyRecorder recorder : recorders) {
+      Slot slot = recorder.take();
+      slot.post.drainInto(totalPost, null);
+      slot.get.drainInto(totalGet, null);
+    }
+    LatencyHistogram merged = new LatencyHistogram();
+    if (method == null || method.equals("POST")) {
+      merged.add(totalPost);
+    }
+    if (method == null || method.equals("GET")) {
+      merged.add(totalGet);
+    }
+    return merged;
+  }
+}
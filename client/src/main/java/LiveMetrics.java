@@ -0,0 +1,208 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Reports how the test is going while it runs, so saturation and the circuit breaker
+ * tripping show up as they happen and a bad run can be stopped early.
+ *
+ * Every interval it takes the latencies recorded since the last one from LatencyRecorder
+ * and the failures counted since, and computes the throughput, error rate, p50 and p99 of
+ * that interval. Each interval is logged as one line, and the latest one and the run's
+ * totals are served in the Prometheus text format for scraping. A Listener gets each
+ * interval's histograms too, which is how a worker streams them to its Coordinator.
+ */
+public class LiveMetrics implements Closeable {
+  private static final Logger logger = Logger.getLogger(LiveMetrics.class.getName());
+
+  private final long intervalMillis;
+  private final boolean print;
+  private final LongSupplier failedRequests;
+  private final Supplier<CircuitBreaker> circuitBreaker;
+  private final Listener listener;
+  private final long startMillis;
+  private final ScheduledExecutorService scheduler;
+  private final HttpServer server;
+
+  // Written by the scheduler thread, read by the HTTP server's
+  private volatile Snapshot latest;
+  private long totalSuccessful;
+  private long lastFailed;
+  private long lastTick;
+
+  /**
+   * Receives the latencies and failures of each interval as it ends
+   */
+  public interface Listener {
+    /**
+     * Called on the live-metrics thread, which waits for it
+     *
+     * @param post The POST latencies of the interval, only valid until this returns
+     * @param get The GET latencies of the interval, only valid until this returns
+     * @param failedRequests The number of requests that failed in the interval
+     */
+    void interval(LatencyHistogram post, LatencyHistogram get, long failedRequests);
+  }
+
+  private static final class Snapshot {
+    private final double throughput;
+    private final double errorRate;
+    private final long p50;
+    private final long p99;
+    private final long totalSuccessful;
+    private final long totalFailed;
+
+    private Snapshot(double throughput, double errorRate, long p50, long p99,
+                     long totalSuccessful, long totalFailed) {
+      this.throughput = throughput;
+      this.errorRate = errorRate;
+      this.p50 = p50;
+      this.p99 = p99;
+      this.totalSuccessful = totalSuccessful;
+      this.totalFailed = totalFailed;
+    }
+  }
+
+  /**
+   * Start reporting. Only call after LatencyRecorder was reset for the main phase.
+   *
+   * @param intervalSeconds How often to compute the metrics
+   * @param print Whether to log each interval
+   * @param port The port to serve /metrics on, or 0 for none
+   * @param failedRequests The number of failed requests so far
+   * @param circuitBreaker The circuit breaker, or null if there is none
+   * @param listener Gets each interval, or null
+   * @throws IOException if the port can't be bound
+   */
+  public LiveMetrics(int intervalSeconds, boolean print, int port, LongSupplier failedRequests,
+                     Supplier<CircuitBreaker> circuitBreaker, Listener listener)
+      throws IOException {
+    this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+    this.print = print;
+    this.failedRequests = failedRequests;
+    this.circuitBreaker = circuitBreaker;
+    this.listener = listener;
+    this.startMillis = System.currentTimeMillis();
+    this.lastTick = startMillis;
+    this.lastFailed = failedRequests.getAsLong();
+    this.latest = new Snapshot(0, 0, 0, 0, 0, lastFailed);
+
+    if (port > 0) {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/metrics", exchange -> {
+        byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      });
+      server.start();
+      logger.info(String.format("Serving live metrics on http://localhost:%d/metrics%n", port));
+    } else {
+      server = null;
+    }
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "live-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this::tick, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void tick() {
+    long now = System.currentTimeMillis();
+    LatencyHistogram interval = LatencyRecorder.interval();
+    long failed = failedRequests.getAsLong();
+    long successful = interval.getCount();
+    long intervalFailed = failed - lastFailed;
+    double seconds = Math.max(1, now - lastTick) / 1000.0;
+    totalSuccessful += successful;
+    lastFailed = failed;
+    lastTick = now;
+
+    long requests = successful + intervalFailed;
+    Snapshot snapshot = new Snapshot(successful / seconds,
+        requests == 0 ? 0 : intervalFailed / (double) requests,
+        successful == 0 ? 0 : interval.getPercentile(50),
+        successful == 0 ? 0 : interval.getPercentile(99), totalSuccessful, failed);
+    latest = snapshot;
+    if (listener != null) {
+      listener.interval(LatencyRecorder.lastInterval("POST"), LatencyRecorder.lastInterval("GET"),
+          intervalFailed);
+    }
+
+    if (print) {
+      CircuitBreaker breaker = circuitBreaker.get();
+      logger.info(String.format("[%4d s] %8.1f req/s, %5.1f%% errors, p50 %d ms, p99 %d ms%s",
+          (now - startMillis) / 1000, snapshot.throughput, snapshot.errorRate * 100,
+          snapshot.p50, snapshot.p99,
+          breaker == null ? "" : ", circuit " + breaker.getState()));
+    }
+  }
+
+  private String prometheus() {
+    Snapshot snapshot = latest;
+    StringBuilder out = new StringBuilder();
+    metric(out, "loadtest_throughput", "gauge",
+        "Successful requests per second in the last interval", snapshot.throughput);
+    metric(out, "loadtest_error_ratio", "gauge",
+        "Fraction of requests that failed in the last interval", snapshot.errorRate);
+    out.append("# HELP loadtest_latency_ms Latency percentiles of the last interval\n")
+        .append("# TYPE loadtest_latency_ms gauge\n")
+        .append("loadtest_latency_ms{quantile=\"0.5\"} ").append(snapshot.p50).append('\n')
+        .append("loadtest_latency_ms{quantile=\"0.99\"} ").append(snapshot.p99).append('\n');
+    metric(out, "loadtest_successful_requests_total", "counter",
+        "Successful requests since the main phase started", snapshot.totalSuccessful);
+    metric(out, "loadtest_failed_requests_total", "counter",
+        "Failed requests since the main phase started", snapshot.totalFailed);
+    CircuitBreaker breaker = circuitBreaker.get();
+    if (breaker != null) {
+      metric(out, "loadtest_circuit_open", "gauge",
+          "1 while the circuit breaker is open or half-open",
+          breaker.getState().equals("closed") ? 0 : 1);
+      metric(out, "loadtest_shed_requests_total", "counter",
+          "Requests dropped while the circuit breaker was open", breaker.getShedRequests());
+    }
+    return out.toString();
+  }
+
+  private static void metric(StringBuilder out, String name, String type, String help,
+                             double value) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+        .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+        .append(name).append(' ')
+        .append(value == Math.rint(value) ? String.valueOf((long) value)
+            : String.format(Locale.ROOT, "%.4f", value))
+        .append('\n');
+  }
+
+  /**
+   * Stop reporting and serving metrics, waiting for an interval being reported to finish
+   */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (server != null) {
+      server.stop(0);
+    }
+  }
+}
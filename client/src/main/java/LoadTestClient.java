@@ -1,34 +1,37 @@
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import java.util.stream.Collectors;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -39,29 +42,43 @@ import org.apache.commons.cli.ParseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class LoadTestClient {
   public static final String FILE_PATH = "sonnets.txt";
   public static final String RESULT_PATH = "../results";
-  public static final int MAX_PER_ROUTE = 20;
+  // Raised to the number of users or open-loop workers when that is higher
   public static final int MAX_TOTAL_CONN = 500;
   private static final int INIT_THREAD_COUNT = 10;
   private static final int INIT_REQUESTS_PER_THREAD = 100;
   private static final int REQUESTS_PER_THREAD = 1000;
-  private static final int MAX_FAILURES = 100;
+  private static final int CIRCUIT_WINDOW_SECONDS = 10;
+  private static final int CIRCUIT_MIN_REQUESTS = 100;
+  private static final double CIRCUIT_FAILURE_RATE = 0.5;
   private static final int LATENCY_THRESHOLD_MS = 5000;
   private static final int COOLDOWN_PERIOD_MS = 5000;
-  private static final CopyOnWriteArrayList<String> sonnetLines = new CopyOnWriteArrayList<>();
-  private static final Set<String> THEMES = Collections.synchronizedSet(
-      new HashSet<>(Arrays.asList("", "love", "death", "nature", "beauty")));
-  private static final ConcurrentLinkedQueue<String[]> responseTimes =
-      new ConcurrentLinkedQueue<>();
+  private static final int CIRCUIT_PROBE_REQUESTS = 5;
+  // Read once before the test starts and not changed after
+  private static final List<String> sonnetLines = new ArrayList<>();
+  // In popularity order for a profile's themeSkew, so the random theme is the least popular
+  private static final String[] DEFAULT_THEMES = {"love", "death", "nature", "beauty", ""};
+  private static final int THEME_REFRESH_SECONDS = 60;
+  private static final int DEFAULT_DURATION_SECONDS = 60;
+  // Replaced when the themes change. "" stands for the random theme: POST without a theme,
+  // GET /poem
+  private static volatile PayloadCorpus payloads;
+  // The main phase's request mix, null for alternating POST and GET. Set before it starts.
+  private static WorkloadProfile profile;
+  // Per-request CSV lines, null when they are not written
+  private static volatile ResultWriter resultWriter;
+  // Every request sent, null when no trace is recorded
+  private static volatile TraceWriter traceWriter;
   private static final AtomicInteger failedRequests = new AtomicInteger(0);
   private static final Logger logger = Logger.getLogger(LoadTestClient.class.getName());
   private static final PoolingHttpClientConnectionManager connectionManager =
@@ -70,15 +87,22 @@ public class LoadTestClient {
       .setConnectionManager(connectionManager)
       .build();
   private static final AtomicLong startTime = new AtomicLong();
-  private static CircuitState circuitState = CircuitState.CLOSED;
-  private static long lastFailureTime = 0;
-  private static int failureCount = 0;
+  // Null when the circuit breaker is not used
+  private static volatile CircuitBreaker circuitBreaker;
   private static boolean useCircuitBreaker = false;
   private static int executorTimeoutMin = 30; // 30 minutes - Change time if necessary
 
+  // Created on first use, only the async engine needs it
+  private static class AsyncClientHolder {
+    private static final HttpClient asyncClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .build();
+  }
+
   static {
+    // Every connection may go to the one server under test
     connectionManager.setMaxTotal(MAX_TOTAL_CONN);
-    connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+    connectionManager.setDefaultMaxPerRoute(MAX_TOTAL_CONN);
   }
 
   static {
@@ -97,6 +121,10 @@ public class LoadTestClient {
 
   public static void main(String[] args) throws Exception {
     CommandLine cmd = parseArguments(args);
+    if (cmd.hasOption("m")) {
+      coordinate(cmd);
+      return;
+    }
 
     int threadGroupSize = Integer.parseInt(cmd.getArgs()[0]);
     int numThreadGroups = Integer.parseInt(cmd.getArgs()[1]);
@@ -108,42 +136,227 @@ public class LoadTestClient {
     if (cmd.hasOption("e")) {
       executorTimeoutMin = Integer.parseInt(cmd.getOptionValue("e"));
     }
+    readSonnets();
+    if (cmd.hasOption("W")) {
+      profile = WorkloadProfile.load(cmd.getOptionValue("W"));
+    }
+    ScheduledExecutorService themeRefresher = null;
+    if (cmd.hasOption("t")) {
+      payloads = new PayloadCorpus(ipAddr, sonnetLines,
+          toClientThemes(Arrays.asList(cmd.getOptionValue("t").split(","))));
+    } else if (profile != null && profile.getThemes() != null) {
+      // Kept in the profile's order, which is their popularity
+      payloads = new PayloadCorpus(ipAddr, sonnetLines, profile.getThemes());
+    } else {
+      payloads = new PayloadCorpus(ipAddr, sonnetLines, DEFAULT_THEMES);
+      themeRefresher = scheduleThemeRefresh(ipAddr);
+    }
 
     logger.info(String.format("Using circuit breaker: %b%n", useCircuitBreaker));
     logger.info(String.format("Executor timeout: %d minutes%n", executorTimeoutMin));
+    logger.info(String.format("Themes: %s%n", Arrays.toString(payloads.getThemes())));
+
+    Engine engine = Engine.parse(cmd.getOptionValue("g", "threads"));
+    int concurrency = threadGroupSize * numThreadGroups;
+    connectionManager.setMaxTotal(Math.max(MAX_TOTAL_CONN, concurrency));
+    connectionManager.setDefaultMaxPerRoute(Math.max(MAX_TOTAL_CONN, concurrency));
+    if (engine == Engine.VIRTUAL) {
+      // One recorder per virtual thread would mean one per request
+      LatencyRecorder.shareBetweenThreads();
+    }
+    logger.info(String.format("Engine: %s%n", engine));
+    if (profile != null) {
+      logger.info(String.format("Workload profile %s:", cmd.getOptionValue("W")));
+      for (WorkloadProfile.Phase phase : profile.getPhases()) {
+        logger.info("  " + phase);
+      }
+      logger.info("");
+    }
 
-    readSonnets();
+    // Replay mode sends the requests of a recorded trace
+    TraceReplayer replayer = null;
+    if (cmd.hasOption("P")) {
+      String speed = cmd.getOptionValue("s", "1");
+      replayer = new TraceReplayer(cmd.getOptionValue("P"), ipAddr,
+          speed.equalsIgnoreCase("max") ? 0 : Double.parseDouble(speed),
+          Runtime.getRuntime().availableProcessors(), concurrency);
+      logger.info(String.format("Replaying %s at %s speed, at most %d in flight%n",
+          cmd.getOptionValue("P"), speed.equalsIgnoreCase("max") ? "max" : speed + "x",
+          concurrency));
+    }
+
+    double rate = cmd.hasOption("r") ? Double.parseDouble(cmd.getOptionValue("r")) : 0;
 
     ThreadPoolExecutor initialExecutor =
         (ThreadPoolExecutor) Executors.newFixedThreadPool(INIT_THREAD_COUNT);
-    initializePhase(initialExecutor, ipAddr);
+    initializePhase(initialExecutor);
+
+    int liveSeconds = Integer.parseInt(cmd.getOptionValue("l", "1"));
+    // A worker always takes intervals, to stream them to the coordinator
+    int intervalSeconds = liveSeconds > 0 ? liveSeconds : 1;
+
+    // A worker starts its main phase together with the others, at its share of the rate
+    Coordinator.Worker worker = null;
+    if (cmd.hasOption("j")) {
+      logger.info(String.format("Joining coordinator %s...", cmd.getOptionValue("j")));
+      worker = Coordinator.Worker.join(cmd.getOptionValue("j"));
+      Coordinator.Start start = worker.awaitStart(intervalSeconds);
+      if (start.getRate() > 0) {
+        rate = start.getRate();
+      }
+      long wait = start.getStartAtMillis() - System.currentTimeMillis();
+      logger.info(String.format("Worker %d of %d, starting in %d ms", start.getWorker() + 1,
+          start.getWorkers(), wait));
+      if (wait > 0) {
+        Thread.sleep(wait);
+      }
+    }
+
+    // Open-loop mode sends at a target rate instead of waiting for each response
+    OpenLoopGenerator openLoop = null;
+    if (replayer == null && rate > 0) {
+      ArrivalPattern pattern = ArrivalPattern.parse(cmd.getOptionValue("p", "constant"));
+      // A profile runs open loop for as long as its phases by default
+      long defaultDuration = profile == null ? DEFAULT_DURATION_SECONDS
+          : (profile.getDurationMillis() + 999) / 1000;
+      long duration = Long.parseLong(cmd.getOptionValue("d", String.valueOf(defaultDuration)));
+      openLoop = new OpenLoopGenerator(pattern, rate, duration, concurrency);
+      logger.info(String.format("Open loop: %s arrivals at %.1f requests/sec for %d seconds, "
+          + "at most %d in flight%n", pattern, rate, duration, concurrency));
+    }
 
     logger.info("Initialization phase complete. Starting load test...");
 
     // Reset counters for the main execution phase
-    responseTimes.clear();
+    LatencyRecorder.reset();
     failedRequests.set(0);
+    if (useCircuitBreaker) {
+      circuitBreaker = new CircuitBreaker(CIRCUIT_WINDOW_SECONDS, CIRCUIT_MIN_REQUESTS,
+          CIRCUIT_FAILURE_RATE, LATENCY_THRESHOLD_MS, COOLDOWN_PERIOD_MS, CIRCUIT_PROBE_REQUESTS);
+    }
+    if (Boolean.parseBoolean(cmd.getOptionValue("w", "true"))) {
+      boolean gzip = Boolean.parseBoolean(cmd.getOptionValue("z", "false"));
+      resultWriter = new ResultWriter(resultsFile(threadGroupSize, numThreadGroups, gzip), gzip);
+    }
+    if (cmd.hasOption("R")) {
+      traceWriter = new TraceWriter(cmd.getOptionValue("R"));
+    }
 
     startTime.set(System.currentTimeMillis()); // Initialize start time
+    long startCpuTime = processCpuTime();
+    int metricsPort = Integer.parseInt(cmd.getOptionValue("M", "0"));
+    LiveMetrics liveMetrics = liveSeconds > 0 || metricsPort > 0 || worker != null
+        ? new LiveMetrics(intervalSeconds, liveSeconds > 0, metricsPort,
+            failedRequests::get, () -> circuitBreaker, worker == null ? null : streamTo(worker))
+        : null;
 
     // Main execution phase
-    ThreadPoolExecutor mainExecutor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-    List<Future<Integer>> mainFutures = new ArrayList<>();
-    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    scheduleThreadGroups(scheduler, mainExecutor, mainFutures, threadGroupSize, numThreadGroups,
-        delay, ipAddr);
-
-    // Wait for all tasks to complete
-    waitForTasksToComplete(mainFutures);
-    logger.info("All tasks completed.");
-    
-    // Close HTTP client and shutdown executor
+    ExecutorService mainExecutor = engine.newExecutor();
+    if (replayer != null) {
+      TraceReplayer.Request request = engine == Engine.ASYNC
+          ? (method, uri, body, intendedStart) -> circuitAllows()
+              ? sendHttpRequestAsync(uri, method, body, intendedStart)
+              : CompletableFuture.completedFuture(false)
+          : (method, uri, body, intendedStart) -> CompletableFuture.supplyAsync(
+              () -> circuitAllows() && sendHttpRequest(uri, method, body, intendedStart),
+              mainExecutor);
+      replayer.run(request, executorTimeoutMin);
+      logger.info("All requests completed.");
+    } else if (openLoop != null) {
+      OpenLoopGenerator.Request request = engine == Engine.ASYNC
+          ? (index, intendedStart) -> sendOpenLoopRequestAsync(index, intendedStart)
+          : (index, intendedStart) -> CompletableFuture.supplyAsync(
+              () -> sendOpenLoopRequest(index, intendedStart), mainExecutor);
+      openLoop.run(request, executorTimeoutMin);
+      logger.info("All requests completed.");
+    } else {
+      Supplier<Future<Integer>> startUser;
+      if (profile != null) {
+        // Users send until the profile is over rather than a fixed number of requests
+        startUser = engine == Engine.ASYNC
+            ? () -> sendProfileRequestsAsync(0)
+            : () -> mainExecutor.submit(LoadTestClient::sendProfileRequests);
+      } else {
+        startUser = engine == Engine.ASYNC
+            ? () -> sendRequestsAsync(REQUESTS_PER_THREAD, 0)
+            : () -> mainExecutor.submit(() -> sendRequests(REQUESTS_PER_THREAD));
+      }
+      List<Future<Integer>> mainFutures = new CopyOnWriteArrayList<>();
+      ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+      scheduleThreadGroups(scheduler, startUser, mainFutures, threadGroupSize, numThreadGroups,
+          delay);
+
+      // Wait for all tasks to complete
+      waitForTasksToComplete(mainFutures);
+      logger.info("All tasks completed.");
+    }
+    if (mainExecutor != null) {
+      shutdownExecutor(mainExecutor);
+    }
+    long cpuTime = processCpuTime() - startCpuTime;
+    if (liveMetrics != null) {
+      liveMetrics.close();
+    }
+
+    // Close HTTP client
+    if (themeRefresher != null) {
+      themeRefresher.shutdownNow();
+    }
     closeHttpClient();
-    shutdownExecutor(mainExecutor);
 
     logger.info("Load test complete. Generating report...");
     long endTime = System.currentTimeMillis();
-    generateReport(startTime.get(), endTime, threadGroupSize, numThreadGroups);
+    RunSummary summary = generateReport(startTime.get(), endTime, cpuTime);
+    if (worker != null) {
+      try (Coordinator.Worker link = worker) {
+        link.send(summary);
+        logger.info("Summary sent to the coordinator.");
+      }
+    }
+  }
+
+  // Sends each interval to the coordinator, so it keeps this worker's results if it dies
+  private static LiveMetrics.Listener streamTo(Coordinator.Worker worker) {
+    AtomicBoolean lost = new AtomicBoolean();
+    return (post, get, failed) -> {
+      if (lost.get()) {
+        return;
+      }
+      try {
+        worker.sendInterval(post, get, failed);
+      } catch (IOException e) {
+        lost.set(true);
+        logger.warning(String.format("Lost the coordinator, no longer streaming to it: %s",
+            e.getMessage()));
+      }
+    };
+  }
+
+  /**
+   * Run as the coordinator of a distributed test: start the workers together, then report
+   * on all of their requests
+   */
+  private static void coordinate(CommandLine cmd) throws IOException {
+    if (cmd.hasOption("e")) {
+      executorTimeoutMin = Integer.parseInt(cmd.getOptionValue("e"));
+    }
+    int port = Integer.parseInt(cmd.getOptionValue("m"));
+    int workers = Integer.parseInt(cmd.getOptionValue("n", "1"));
+    double rate = cmd.hasOption("r") ? Double.parseDouble(cmd.getOptionValue("r")) : 0;
+    RunSummary summary;
+    try {
+      summary = new Coordinator(port, workers, rate).run(executorTimeoutMin);
+    } catch (IOException e) {
+      logger.severe(e.getMessage());
+      System.exit(1);
+      return;
+    }
+    if (summary == null) {
+      logger.warning("No worker sent a summary.");
+      System.exit(1);
+    }
+    logger.info("All workers finished. Merged report:");
+    printReport(summary);
   }
 
   private static CommandLine parseArguments(String[] args) throws ParseException {
@@ -153,25 +366,65 @@ public class LoadTestClient {
         "Whether to use the circuit breaker feature (default is true)");
     options.addOption("e", "executorTimeoutMin", true,
         "Executor timeout in minutes (default is 30)");
+    options.addOption("t", "themes", true,
+        "Comma-separated themes to use instead of fetching them from the server's /themes, "
+            + "random for the random theme");
+    options.addOption("w", "writeCsv", true,
+        "Whether to write every request to the response times CSV file (default is true)");
+    options.addOption("z", "gzip", true,
+        "Whether to gzip the response times CSV file (default is false)");
+    options.addOption("g", "engine", true,
+        "How requests are sent: threads, virtual (virtual threads, Java 21+) or async "
+            + "(non-blocking) (default is threads)");
+    options.addOption("r", "rate", true,
+        "Send requests open loop at this many requests/sec, with at most threadGroupSize x "
+            + "numThreadGroups in flight, instead of in thread groups");
+    options.addOption("p", "pattern", true,
+        "Open-loop arrival pattern: constant, step, poisson or spike (default is constant)");
+    options.addOption("d", "duration", true,
+        "Open-loop run time in seconds (default is 60)");
+    options.addOption("R", "record", true,
+        "Record every request sent to this trace file, to replay later with -P");
+    options.addOption("P", "replay", true,
+        "Send the requests of this trace file instead of generating them, with at most "
+            + "threadGroupSize x numThreadGroups in flight");
+    options.addOption("s", "speed", true,
+        "Replay speed: 1 as recorded, 2 twice as fast, etc., or max (default is 1)");
+    options.addOption("W", "workload", true,
+        "Send the main phase's requests in the mix of the phases of this JSON workload profile; "
+            + "its themeSkew ranks the themes by popularity in the order they are listed");
+    options.addOption("l", "live", true,
+        "Print the throughput, error rate, p50 and p99 every this many seconds while the test "
+            + "runs, 0 for never (default is 1)");
+    options.addOption("M", "metricsPort", true,
+        "Serve the live metrics for Prometheus on http://localhost:<port>/metrics");
+    options.addOption("m", "coordinate", true,
+        "Coordinate a distributed test: wait for -n workers on this port, start them together "
+            + "with an equal share of -r, and report on all of their requests");
+    options.addOption("n", "workers", true,
+        "The number of workers the coordinator waits for (default is 1)");
+    options.addOption("j", "join", true,
+        "Run as a worker of the coordinator at this host:port, starting the main phase when "
+            + "it says so and sending it the results");
 
     CommandLineParser parser = new DefaultParser();
     CommandLine cmd = parser.parse(options, args);
 
-    if (cmd.getArgs().length < 4) {
+    if (!cmd.hasOption("m") && cmd.getArgs().length < 4) {
       HelpFormatter formatter = new HelpFormatter();
-      formatter.printHelp("LoadTestClient <threadGroupSize> <numThreadGroups> <delay> <IPAddr>",
-          options);
+      formatter.printHelp("LoadTestClient <threadGroupSize> <numThreadGroups> <delay> <IPAddr>\n"
+          + "       LoadTestClient -m <port> -n <workers> [-r <rate>]", options);
       System.exit(1);
     }
 
     return cmd;
   }
 
-  private static void initializePhase(ThreadPoolExecutor executor, String ipAddr)
+  private static void initializePhase(ThreadPoolExecutor executor)
       throws InterruptedException, ExecutionException {
     List<Future<Integer>> initFutures = new ArrayList<>();
     for (int i = 0; i < 10; i++) {
-      initFutures.add(executor.submit(() -> sendRequests(ipAddr, INIT_REQUESTS_PER_THREAD)));
+      initFutures.add(executor.submit(() -> sendRequests(INIT_REQUESTS_PER_THREAD)));
     }
     AtomicInteger successfulRequests = new AtomicInteger(0);
     for (Future<Integer> future : initFutures) {
@@ -186,10 +439,15 @@ public class LoadTestClient {
     }
   }
 
+  /**
+   * Start threadGroupSize users per thread group, one group every delay milliseconds
+   *
+   * @param startUser Starts one user, returning its number of successful requests once it is done
+   */
   private static void scheduleThreadGroups(ScheduledExecutorService scheduler,
-                                           ThreadPoolExecutor mainExecutor,
+                                           Supplier<Future<Integer>> startUser,
                                            List<Future<Integer>> mainFutures, int threadGroupSize,
-                                           int numThreadGroups, int delay, String ipAddr)
+                                           int numThreadGroups, int delay)
       throws InterruptedException {
     for (int i = 0; i < numThreadGroups; i++) {
       final int groupIndex = i;
@@ -197,7 +455,7 @@ public class LoadTestClient {
         logger.info(String.format("Starting thread group %d at %d ms", groupIndex,
             System.currentTimeMillis() - startTime.get()));
         for (int j = 0; j < threadGroupSize; j++) {
-          mainFutures.add(mainExecutor.submit(() -> sendRequests(ipAddr, REQUESTS_PER_THREAD)));
+          mainFutures.add(startUser.get());
         }
       }, (long) i * delay, TimeUnit.MILLISECONDS);
     }
@@ -227,7 +485,7 @@ public class LoadTestClient {
     }
   }
 
-  private static void shutdownExecutor(ThreadPoolExecutor executor)
+  private static void shutdownExecutor(ExecutorService executor)
       throws InterruptedException {
     executor.shutdown();
     boolean terminated = executor.awaitTermination(executorTimeoutMin, TimeUnit.MINUTES);
@@ -256,78 +514,309 @@ public class LoadTestClient {
     }
   }
 
-  private static int sendRequests(String ipAddr, int numRequests) {
-    int successfulRequests = 0;
-    for (int i = 0; i < numRequests; i++) {
-      if (useCircuitBreaker && circuitState == CircuitState.OPEN
-          && System.currentTimeMillis() - lastFailureTime <= COOLDOWN_PERIOD_MS) {
-        continue;
+  /**
+   * Fetch the themes from the server now and then every THEME_REFRESH_SECONDS, so that
+   * themes added on the server get load during the test. Servers without /themes are not
+   * asked again.
+   *
+   * @return The refresher, or null if the server has no /themes
+   */
+  private static ScheduledExecutorService scheduleThemeRefresh(String ipAddr) {
+    if (!refreshThemes(ipAddr)) {
+      logger.info(String.format("The server has no /themes, using %s%n",
+          Arrays.toString(payloads.getThemes())));
+      return null;
+    }
+    ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "theme-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(() -> refreshThemes(ipAddr), THEME_REFRESH_SECONDS,
+        THEME_REFRESH_SECONDS, TimeUnit.SECONDS);
+    return refresher;
+  }
+
+  // Returns false if the server has no /themes, true otherwise, even if this fetch failed
+  private static boolean refreshThemes(String ipAddr) {
+    try (CloseableHttpResponse response = client.execute(new HttpGet(ipAddr + "/themes"))) {
+      String body = EntityUtils.toString(response.getEntity());
+      if (response.getStatusLine().getStatusCode() == 404) {
+        return false;
       }
+      if (response.getStatusLine().getStatusCode() != 200) {
+        logger.warning(String.format("Could not fetch themes (HTTP %d), keeping %s",
+            response.getStatusLine().getStatusCode(), Arrays.toString(payloads.getThemes())));
+        return true;
+      }
+      JSONArray serverThemes = new JSONObject(body).getJSONArray("themes");
+      List<String> names = new ArrayList<>();
+      for (int i = 0; i < serverThemes.length(); i++) {
+        names.add(serverThemes.getString(i));
+      }
+      String[] clientThemes = toClientThemes(names);
+      if (!Arrays.equals(clientThemes, payloads.getThemes())) {
+        payloads = new PayloadCorpus(ipAddr, sonnetLines, clientThemes);
+      }
+    } catch (Exception e) {
+      logger.warning(String.format("Could not fetch themes (%s), keeping %s", e.getMessage(),
+          Arrays.toString(payloads.getThemes())));
+    }
+    return true;
+  }
 
-      if (useCircuitBreaker && circuitState == CircuitState.OPEN) {
-        circuitState = CircuitState.HALF_OPEN;
+  private static String[] toClientThemes(List<String> names) {
+    // Kept in the order listed, which is their popularity for a profile's themeSkew
+    Set<String> clientThemes = new LinkedHashSet<>();
+    for (String name : names) {
+      String theme = name.trim().toLowerCase();
+      if (!theme.isEmpty()) {
+        // "" stands for the random theme, as in PayloadCorpus
+        clientThemes.add(theme.equals("random") ? "" : theme);
       }
+    }
+    if (clientThemes.isEmpty()) {
+      clientThemes.add("");
+    }
+    return clientThemes.toArray(new String[0]);
+  }
 
-      if (sendPostRequest(ipAddr)) {
+  /**
+   * Send numRequests POST and GET pairs one after the other. While the circuit breaker is
+   * open the user pauses rather than skipping requests.
+   *
+   * @return The number of successful requests
+   */
+  private static int sendRequests(int numRequests) throws InterruptedException {
+    int successfulRequests = 0;
+    for (int i = 0; i < numRequests; i++) {
+      waitForCircuit();
+      if (sendPostRequest(0)) {
         successfulRequests++;
       }
-      if (sendGetRequest(ipAddr)) {
+      waitForCircuit();
+      if (sendGetRequest(0)) {
         successfulRequests++;
       }
     }
     return successfulRequests;
   }
 
-  private static boolean sendPostRequest(String ipAddr) {
-    String line = sonnetLines.get(ThreadLocalRandom.current().nextInt(sonnetLines.size()));
-    String theme = new ArrayList<>(THEMES).get(ThreadLocalRandom.current().nextInt(THEMES.size()));
-    JSONObject json = new JSONObject();
-    json.put("author", Thread.currentThread().getId());
-    json.put("content", line);
-    json.put("theme", theme);
+  /**
+   * Send requests in the mix of the profile's current phase until the profile is over.
+   * While the circuit breaker is open the user pauses rather than skipping requests.
+   *
+   * @return The number of successful requests
+   */
+  private static int sendProfileRequests() throws InterruptedException {
+    int successfulRequests = 0;
+    while (true) {
+      waitForCircuit();
+      WorkloadProfile.Phase phase = profile.phaseAt(System.currentTimeMillis() - startTime.get());
+      if (phase == null) {
+        return successfulRequests;
+      }
+      if (sendProfileRequest(phase, 0)) {
+        successfulRequests++;
+      }
+      long thinkTime = phase.thinkTimeMillis();
+      if (thinkTime > 0) {
+        Thread.sleep(thinkTime);
+      }
+    }
+  }
 
-    String url = ipAddr + "/sentence";
-    return sendHttpRequest(url, "POST", json.toString());
+  /**
+   * Send one open-loop request, alternating POST and GET like the closed loop does, or in
+   * the mix of the profile's current phase. Requests arriving while the circuit breaker is
+   * open are shed.
+   */
+  private static boolean sendOpenLoopRequest(long index, long intendedStart) {
+    if (!circuitAllows()) {
+      return false;
+    }
+    if (profile != null) {
+      return sendProfileRequest(openLoopPhase(), intendedStart);
+    }
+    return index % 2 == 0 ? sendPostRequest(intendedStart)
+        : sendGetRequest(intendedStart);
   }
 
-  private static boolean sendGetRequest(String ipAddr) {
-    String theme = new ArrayList<>(THEMES).get(ThreadLocalRandom.current().nextInt(THEMES.size()));
-    String url = theme.isEmpty() ? ipAddr + "/poem" : ipAddr + "/poem/" + theme;
-    return sendHttpRequest(url, "GET", null);
+  /**
+   * Send numRequests POST and GET pairs one after the other like sendRequests, without
+   * holding a thread while waiting for responses
+   *
+   * @return Completes with the number of successful requests
+   */
+  private static CompletableFuture<Integer> sendRequestsAsync(int numRequests,
+                                                              int successfulRequests) {
+    if (numRequests == 0) {
+      return CompletableFuture.completedFuture(successfulRequests);
+    }
+    return waitForCircuitAsync()
+        .thenCompose(ready -> sendPostRequestAsync(0))
+        .thenCompose(post -> waitForCircuitAsync()
+            .thenCompose(ready -> sendGetRequestAsync(0))
+            .thenCompose(get -> sendRequestsAsync(numRequests - 1,
+                successfulRequests + (post ? 1 : 0) + (get ? 1 : 0))));
   }
 
-  private static boolean sendHttpRequest(String url, String method, String payload) {
-    long start = System.currentTimeMillis();
+  /**
+   * Send requests in the mix of the profile like sendProfileRequests, without holding a
+   * thread while waiting for responses or thinking
+   *
+   * @return Completes with the number of successful requests
+   */
+  private static CompletableFuture<Integer> sendProfileRequestsAsync(int successfulRequests) {
+    return waitForCircuitAsync().thenCompose(ready -> {
+      WorkloadProfile.Phase phase = profile.phaseAt(System.currentTimeMillis() - startTime.get());
+      if (phase == null) {
+        return CompletableFuture.completedFuture(successfulRequests);
+      }
+      return sendProfileRequestAsync(phase, 0).thenCompose(successful -> {
+        int total = successfulRequests + (successful ? 1 : 0);
+        long thinkTime = phase.thinkTimeMillis();
+        if (thinkTime == 0) {
+          return sendProfileRequestsAsync(total);
+        }
+        return CompletableFuture.runAsync(() -> { },
+                CompletableFuture.delayedExecutor(thinkTime, TimeUnit.MILLISECONDS))
+            .thenCompose(done -> sendProfileRequestsAsync(total));
+      });
+    });
+  }
+
+  private static CompletableFuture<Boolean> sendOpenLoopRequestAsync(long index,
+                                                                     long intendedStart) {
+    if (!circuitAllows()) {
+      return CompletableFuture.completedFuture(false);
+    }
+    if (profile != null) {
+      return sendProfileRequestAsync(openLoopPhase(), intendedStart);
+    }
+    return index % 2 == 0 ? sendPostRequestAsync(intendedStart)
+        : sendGetRequestAsync(intendedStart);
+  }
+
+  // Whether the circuit breaker lets an open-loop request through, counting it as shed if not
+  private static boolean circuitAllows() {
+    CircuitBreaker breaker = circuitBreaker;
+    if (breaker == null || breaker.allowRequest()) {
+      return true;
+    }
+    breaker.shed();
+    return false;
+  }
+
+  // How long a closed-loop user waits before asking the circuit breaker again, 0 to send now
+  private static long circuitWait() {
+    CircuitBreaker breaker = circuitBreaker;
+    return breaker == null || breaker.allowRequest() ? 0 : breaker.millisUntilRetry();
+  }
+
+  private static void waitForCircuit() throws InterruptedException {
+    long wait;
+    while ((wait = circuitWait()) > 0) {
+      Thread.sleep(wait);
+    }
+  }
+
+  // Completes once the circuit breaker lets a closed-loop request through
+  private static CompletableFuture<Void> waitForCircuitAsync() {
+    long wait = circuitWait();
+    if (wait == 0) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return CompletableFuture.runAsync(() -> { },
+            CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS))
+        .thenCompose(ready -> waitForCircuitAsync());
+  }
+
+  private static boolean sendPostRequest(long intendedStart) {
+    PayloadCorpus corpus = payloads;
+    return sendHttpRequest(corpus.getSentenceUri(), "POST",
+        corpus.randomSentence(Thread.currentThread().getId()), intendedStart);
+  }
+
+  private static boolean sendGetRequest(long intendedStart) {
+    return sendHttpRequest(payloads.randomPoemUri(), "GET", null, intendedStart);
+  }
+
+  private static CompletableFuture<Boolean> sendPostRequestAsync(long intendedStart) {
+    PayloadCorpus corpus = payloads;
+    return sendHttpRequestAsync(corpus.getSentenceUri(), "POST",
+        corpus.randomSentence(Thread.currentThread().getId()), intendedStart);
+  }
+
+  // The profile's current phase, or its last one when the open-loop run outlasts the profile
+  private static WorkloadProfile.Phase openLoopPhase() {
+    WorkloadProfile.Phase phase = profile.phaseAt(System.currentTimeMillis() - startTime.get());
+    if (phase == null) {
+      List<WorkloadProfile.Phase> phases = profile.getPhases();
+      return phases.get(phases.size() - 1);
+    }
+    return phase;
+  }
+
+  // A POST or GET in the phase's mix, for a theme picked by the phase's popularity
+  private static boolean sendProfileRequest(WorkloadProfile.Phase phase, long intendedStart) {
+    PayloadCorpus corpus = payloads;
+    int theme = phase.pickTheme(corpus.getThemeCount());
+    if (phase.nextIsPost()) {
+      return sendHttpRequest(corpus.getSentenceUri(), "POST", corpus.sentence(
+          Thread.currentThread().getId(), theme, phase.sentenceLines()), intendedStart);
+    }
+    return sendHttpRequest(corpus.poemUri(theme), "GET", null, intendedStart);
+  }
+
+  private static CompletableFuture<Boolean> sendProfileRequestAsync(WorkloadProfile.Phase phase,
+                                                                    long intendedStart) {
+    PayloadCorpus corpus = payloads;
+    int theme = phase.pickTheme(corpus.getThemeCount());
+    if (phase.nextIsPost()) {
+      return sendHttpRequestAsync(corpus.getSentenceUri(), "POST", corpus.sentence(
+          Thread.currentThread().getId(), theme, phase.sentenceLines()), intendedStart);
+    }
+    return sendHttpRequestAsync(corpus.poemUri(theme), "GET", null, intendedStart);
+  }
+
+  private static CompletableFuture<Boolean> sendGetRequestAsync(long intendedStart) {
+    return sendHttpRequestAsync(payloads.randomPoemUri(), "GET", null, intendedStart);
+  }
+
+  /**
+   * Send a request and record its latency
+   *
+   * @param intendedStart When an open-loop request should have been sent, in epoch milliseconds;
+   *                      its latency is measured from then, including any time spent waiting for
+   *                      a worker. 0 measures from the actual send.
+   */
+  private static boolean sendHttpRequest(URI uri, String method, byte[] payload,
+                                         long intendedStart) {
+    long sent = System.currentTimeMillis();
+    long start = intendedStart > 0 ? intendedStart : sent;
+    long generation = circuitGeneration();
+    recordTrace(start, method, uri, payload);
     CloseableHttpResponse response = null;
     try {
       if (method.equals("POST")) {
-        HttpPost post = new HttpPost(url);
-        post.setEntity(new StringEntity(payload));
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(new ByteArrayEntity(payload));
         post.setHeader("Content-type", "application/json");
         response = client.execute(post);
       } else {
-        HttpGet get = new HttpGet(url);
+        HttpGet get = new HttpGet(uri);
         response = client.execute(get);
       }
 
-      long end = System.currentTimeMillis();
-      long latency = end - start;
-      int responseCode = response.getStatusLine().getStatusCode();
-
-      if (responseCode >= 200 && responseCode < 300) {
-        responseTimes.add(new String[] {String.valueOf(start), method, String.valueOf(latency),
-            String.valueOf(responseCode)});
-        handleCircuitBreakerOnSuccess(latency);
-        EntityUtils.consume(response.getEntity());
-        return true;
-      } else {
-        failedRequests.incrementAndGet();
-        EntityUtils.consume(response.getEntity());
-        return false;
-      }
+      boolean successful = recordResponse(method, start, sent, generation,
+          response.getStatusLine().getStatusCode());
+      EntityUtils.consume(response.getEntity());
+      return successful;
     } catch (Exception e) {
       System.err.println("Error sending request: " + e.getMessage());
       failedRequests.incrementAndGet();
+      recordCircuitOutcome(generation, false, System.currentTimeMillis() - sent);
       return false;
     } finally {
       if (response != null) {
@@ -339,44 +828,154 @@ public class LoadTestClient {
     }
   }
 
-  private static void handleCircuitBreakerOnSuccess(long latency) {
-    if (useCircuitBreaker && latency > LATENCY_THRESHOLD_MS) {
-      failureCount++;
-      lastFailureTime = System.currentTimeMillis();
-      if (failureCount >= MAX_FAILURES) {
-        circuitState = CircuitState.OPEN;
-        logger.info("Circuit breaker tripped! Pausing requests.");
+  /**
+   * Send a request with the JDK's non-blocking client and record its latency, see sendHttpRequest
+   *
+   * @return Completes with whether the request succeeded
+   */
+  private static CompletableFuture<Boolean> sendHttpRequestAsync(URI uri, String method,
+                                                                 byte[] payload,
+                                                                 long intendedStart) {
+    long sent = System.currentTimeMillis();
+    long start = intendedStart > 0 ? intendedStart : sent;
+    long generation = circuitGeneration();
+    recordTrace(start, method, uri, payload);
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri);
+    if (method.equals("POST")) {
+      request.header("Content-type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofByteArray(payload));
+    }
+    return AsyncClientHolder.asyncClient
+        .sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+        .handle((response, e) -> {
+          if (e != null) {
+            System.err.println("Error sending request: " + e.getMessage());
+            failedRequests.incrementAndGet();
+            recordCircuitOutcome(generation, false, System.currentTimeMillis() - sent);
+            return false;
+          }
+          return recordResponse(method, start, sent, generation, response.statusCode());
+        });
+  }
+
+  /**
+   * Record the outcome of a request that got a response
+   *
+   * @param start When the latency is measured from, in epoch milliseconds
+   * @param sent When the request was actually sent, in epoch milliseconds
+   * @param generation The circuit breaker's generation when the request was sent
+   * @return Whether the request succeeded
+   */
+  private static boolean recordResponse(String method, long start, long sent, long generation,
+                                        int responseCode) {
+    long end = System.currentTimeMillis();
+    long latency = end - start;
+    boolean successful = responseCode >= 200 && responseCode < 300;
+    // The breaker reacts to how slow the server is, not to the client's own backlog
+    recordCircuitOutcome(generation, successful, end - sent);
+    if (!successful) {
+      failedRequests.incrementAndGet();
+      return false;
+    }
+
+    LatencyRecorder.record(method, latency);
+    ResultWriter writer = resultWriter;
+    if (writer != null) {
+      try {
+        writer.write(start, method, latency, responseCode);
+      } catch (IllegalStateException e) {
+        // The writer logged why it stopped and close() reports it; the request still counts
       }
-    } else {
-      failureCount = 0; // Reset failures on success
-      if (useCircuitBreaker && circuitState == CircuitState.HALF_OPEN) {
-        circuitState = CircuitState.CLOSED;
-        logger.info("Circuit breaker recovered!");
+    }
+    return true;
+  }
+
+  private static void recordTrace(long start, String method, URI uri, byte[] payload) {
+    TraceWriter writer = traceWriter;
+    if (writer != null) {
+      try {
+        writer.write(start - startTime.get(), method, uri.getRawPath(), payload);
+      } catch (IllegalStateException e) {
+        // The writer logged why it stopped and close() reports it; the request is still sent
       }
     }
   }
 
-  private static void generateReport(long startTime, long endTime, int threadGroupSize,
-                                     int numThreadGroups) {
-    long wallTime = (endTime - startTime) / 1000;
-    long successfulRequests = responseTimes.size();
-    long failedRequestsCount = failedRequests.get();
+  // Tags a request with the circuit breaker's state, so outcomes from an earlier one are ignored
+  private static long circuitGeneration() {
+    CircuitBreaker breaker = circuitBreaker;
+    return breaker == null ? 0 : breaker.generation();
+  }
+
+  private static void recordCircuitOutcome(long generation, boolean successful, long latency) {
+    CircuitBreaker breaker = circuitBreaker;
+    if (breaker != null) {
+      breaker.record(generation, successful, latency);
+    }
+  }
+
+  // CPU time used by the whole client process, in nanoseconds, or 0 if the JVM doesn't report it
+  private static long processCpuTime() {
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return Math.max(0, ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime());
+    }
+    return 0;
+  }
+
+  private static RunSummary generateReport(long startTime, long endTime, long cpuTime) {
+    if (resultWriter != null) {
+      try {
+        resultWriter.close();
+        logger.info("Response times and throughput data written to CSV files.");
+      } catch (IOException e) {
+        System.err.println("Error writing response times CSV file: " + e.getMessage());
+      }
+    }
+    if (traceWriter != null) {
+      try {
+        traceWriter.close();
+        logger.info("Requests recorded to the trace file.");
+      } catch (IOException e) {
+        System.err.println("Error writing trace file: " + e.getMessage());
+      }
+    }
+
+    RunSummary summary = new RunSummary(endTime - startTime, cpuTime, failedRequests.get(),
+        LatencyRecorder.merged("POST"), LatencyRecorder.merged("GET"), circuitBreaker);
+    printReport(summary);
+    return summary;
+  }
+
+  private static void printReport(RunSummary summary) {
+    long wallTime = summary.getDurationMillis() / 1000;
+    LatencyHistogram overall = summary.getOverall();
+    long successfulRequests = overall.getCount();
+    long failedRequestsCount = summary.getFailedRequests();
     double throughput = successfulRequests / (double) wallTime;
 
     logger.info(String.format("Wall Time: %d seconds", wallTime));
     logger.info(String.format("Throughput: %.2f requests/sec%n", throughput));
     logger.info(String.format("Total Successful Requests: %d", successfulRequests));
     logger.info(String.format("Total Failed Requests: %d", failedRequestsCount));
+    long totalRequests = successfulRequests + failedRequestsCount;
+    long cpuTime = summary.getCpuNanos();
+    if (cpuTime > 0 && totalRequests > 0) {
+      logger.info(String.format("Client CPU: %.1f s, %.1f us per request",
+          cpuTime / 1e9, cpuTime / 1e3 / totalRequests));
+    }
+    if (summary.hasCircuitBreaker()) {
+      logger.info(String.format("Circuit breaker: opened %d times, open for %.1f s, "
+              + "%d requests shed", summary.getTimesOpened(), summary.getOpenMillis() / 1000.0,
+          summary.getShedRequests()));
+    }
 
-    writeResponseTimesCsv(threadGroupSize, numThreadGroups);
-    logger.info("Response times and throughput data written to CSV files.");
-
-    calculateStats("Overall", new ArrayList<>(responseTimes));
-    calculateStats("POST", filterResponseTimes("POST"));
-    calculateStats("GET", filterResponseTimes("GET"));
+    calculateStats("Overall", overall);
+    calculateStats("POST", summary.getPost());
+    calculateStats("GET", summary.getGet());
   }
 
-  private static void writeResponseTimesCsv(int threadGroupSize, int numThreadGroups) {
+  private static String resultsFile(int threadGroupSize, int numThreadGroups, boolean gzip) {
     String folderName = RESULT_PATH; // Go up one level to 'client' directory
     File folder = new File(folderName);
 
@@ -384,47 +983,23 @@ public class LoadTestClient {
       folderName = "."; // Default to current directory
     }
 
-    String filename = String.format("%s/response_time_size-%d_%d_groups.csv",
-        folderName, threadGroupSize, numThreadGroups);
-
-    try (PrintWriter writer = new PrintWriter(filename)) {
-      writer.println("start_time,request_type,response_time,response_code");
-      responseTimes.forEach(line -> writer.println(String.join(",", line)));
-    } catch (FileNotFoundException e) {
-      System.err.println("Error writing response times CSV file: " + e.getMessage());
-    }
+    return String.format("%s/response_time_size-%d_%d_groups.csv%s",
+        folderName, threadGroupSize, numThreadGroups, gzip ? ".gz" : "");
   }
 
-  private static List<String[]> filterResponseTimes(String requestType) {
-    return responseTimes.stream()
-        .filter(line -> line[1].equals(requestType))
-        .collect(Collectors.toList());
-  }
-
-  private static void calculateStats(String requestType, List<String[]> filteredResponseTimes) {
-    List<Long> latencies = filteredResponseTimes.stream()
-        .map(line -> Long.valueOf(line[2]))
-        .sorted()
-        .collect(Collectors.toList());
-
-    if (latencies.isEmpty()) {
+  private static void calculateStats(String requestType, LatencyHistogram latencies) {
+    if (latencies.getCount() == 0) {
       logger.info(String.format("No %s requests were made.", requestType));
       return;
     }
 
-    long min = latencies.get(0);
-    long max = latencies.get(latencies.size() - 1);
-    double mean = latencies.stream().mapToLong(Long::longValue).average().orElse(0);
-    long median = latencies.get(latencies.size() / 2);
-    long p99 = latencies.get((int) (latencies.size() * 0.99));
-
     logger.info(String.format("\n%s Request Statistics:", requestType));
-    logger.info(String.format("Min: %d ms", min));
-    logger.info(String.format("Max: %d ms", max));
-    logger.info(String.format("Mean: %.2f ms", mean));
-    logger.info(String.format("Median: %d ms", median));
-    logger.info(String.format("P99: %d ms", p99));
+    logger.info(String.format("Min: %d ms", latencies.getMin()));
+    logger.info(String.format("Max: %d ms", latencies.getMax()));
+    logger.info(String.format("Mean: %.2f ms", latencies.getMean()));
+    logger.info(String.format("Median: %d ms", latencies.getPercentile(50)));
+    logger.info(String.format("P90: %d ms", latencies.getPercentile(90)));
+    logger.info(String.format("P99: %d ms", latencies.getPercentile(99)));
+    logger.info(String.format("P99.9: %d ms", latencies.getPercentile(99.9)));
   }
-
-  private enum CircuitState { CLOSED, OPEN, HALF_OPEN }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Sends requests at a target rate however fast the server answers (open loop).
+ *
+ * The calling thread works out the intended send time of every request from the arrival
+ * pattern and starts the request at that time, unless the maximum number of requests is
+ * already in flight, in which case it waits for one to finish. Requests are timed from
+ * their intended send time, so when the server slows down and requests wait for a free
+ * slot or connection, the wait counts as latency instead of silently lowering the load
+ * (coordinated omission). Once the schedule is behind, requests are started without
+ * waiting until it catches up.
+ */
+public class OpenLoopGenerator {
+  private static final Logger logger = Logger.getLogger(OpenLoopGenerator.class.getName());
+
+  /**
+   * Starts one request
+   */
+  public interface Request {
+    /**
+     * @param index The number of the request in the run, from 0
+     * @param intendedStart When the request should have been sent, in epoch milliseconds
+     * @return Completes with whether the request succeeded; must not block until then
+     */
+    CompletableFuture<Boolean> send(long index, long intendedStart);
+  }
+
+  private final ArrivalPattern pattern;
+  private final double rate;
+  private final long durationNanos;
+  private final int maxInFlight;
+
+  /**
+   * @param pattern When requests arrive
+   * @param rate The target rate in requests per second
+   * @param durationSeconds How long to send requests for
+   * @param maxInFlight The most requests in flight at once
+   */
+  public OpenLoopGenerator(ArrivalPattern pattern, double rate, long durationSeconds,
+                           int maxInFlight) {
+    this.pattern = pattern;
+    this.rate = rate;
+    this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Send requests until the duration has passed, then wait for the ones still queued
+   * or in flight
+   *
+   * @param request Sends a request
+   * @param timeoutMinutes How long to wait for the remaining requests
+   * @return The number of successful requests
+   */
+  public int run(Request request, long timeoutMinutes) throws InterruptedException {
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    AtomicInteger successfulRequests = new AtomicInteger();
+    long startNanos = System.nanoTime();
+    long startMillis = System.currentTimeMillis();
+    long scheduled = 0;
+
+    for (long offset = pattern.nextOffset(0, rate, durationNanos); offset < durationNanos;
+         offset = pattern.nextOffset(offset, rate, durationNanos)) {
+      // parkNanos may return early, and never waits when the schedule is behind
+      long wait;
+      while ((wait = startNanos + offset - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      inFlight.acquire();
+      long intendedStart = startMillis + TimeUnit.NANOSECONDS.toMillis(offset);
+      request.send(scheduled++, intendedStart).whenComplete((successful, e) -> {
+        if (Boolean.TRUE.equals(successful)) {
+          successfulRequests.incrementAndGet();
+        }
+        inFlight.release();
+      });
+    }
+
+    logger.info(String.format("Scheduled %d requests, waiting for the ones still in flight...",
+        scheduled));
+    if (!inFlight.tryAcquire(maxInFlight, timeoutMinutes, TimeUnit.MINUTES)) {
+      logger.warning("Warning: Not all requests finished before timeout!");
+    }
+    return successfulRequests.get();
+  }
+}
@@ -0,0 +1,157 @@
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.json.JSONObject;
+
+/**
+ * The requests the load test picks from, encoded once up front.
+ *
+ * Every sonnet line and theme is turned into the UTF-8 JSON of a POST body, minus the
+ * author, when the corpus is built, and every GET URI is parsed then too. Picking a
+ * request is a ThreadLocalRandom draw into immutable arrays, so sending threads share no
+ * lock or mutable state, and a POST body costs one byte array copy. Sentences of several
+ * lines, for workload profiles with larger payloads, are joined from the encoded lines.
+ * A new corpus is built when the themes change.
+ */
+public final class PayloadCorpus {
+  private static final byte[] AUTHOR_PREFIX = "{\"author\":".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CONTENT_PREFIX = ",\"content\":\"".getBytes(StandardCharsets.UTF_8);
+
+  private final String[] themes;
+  private final URI sentenceUri;
+  private final URI[] poemUris;
+  // The rest of the body after the author, by theme then line
+  private final byte[][][] sentenceTails;
+  // Each line JSON-escaped without its quotes, and the body after the content by theme
+  private final byte[][] escapedLines;
+  private final byte[][] themeTails;
+
+  /**
+   * @param baseUrl The server's base URL, e.g. http://localhost:8080
+   * @param lines The sentences to send
+   * @param themes The themes to send sentences for and get poems of, "" for the random theme
+   */
+  public PayloadCorpus(String baseUrl, List<String> lines, String[] themes) {
+    this.themes = themes.clone();
+    this.sentenceUri = URI.create(baseUrl + "/sentence");
+    this.poemUris = new URI[themes.length];
+    this.sentenceTails = new byte[themes.length][lines.size()][];
+    this.escapedLines = new byte[lines.size()][];
+    this.themeTails = new byte[themes.length][];
+    for (int l = 0; l < lines.size(); l++) {
+      String quoted = JSONObject.quote(lines.get(l));
+      escapedLines[l] = quoted.substring(1, quoted.length() - 1).getBytes(StandardCharsets.UTF_8);
+    }
+    for (int t = 0; t < themes.length; t++) {
+      poemUris[t] = URI.create(themes[t].isEmpty() ? baseUrl + "/poem"
+          : baseUrl + "/poem/" + themes[t]);
+      String theme = ",\"theme\":" + JSONObject.quote(themes[t]) + "}";
+      themeTails[t] = ("\"" + theme).getBytes(StandardCharsets.UTF_8);
+      for (int l = 0; l < lines.size(); l++) {
+        sentenceTails[t][l] = (",\"content\":" + JSONObject.quote(lines.get(l)) + theme)
+            .getBytes(StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * @return A copy of the themes, "" for the random theme
+   */
+  public String[] getThemes() {
+    return themes.clone();
+  }
+
+  /**
+   * @return The number of themes, "" for the random theme included
+   */
+  public int getThemeCount() {
+    return themes.length;
+  }
+
+  /**
+   * @return The URI to POST sentences to
+   */
+  public URI getSentenceUri() {
+    return sentenceUri;
+  }
+
+  /**
+   * @return The URI to GET the poem of a random theme
+   */
+  public URI randomPoemUri() {
+    return poemUris[ThreadLocalRandom.current().nextInt(poemUris.length)];
+  }
+
+  /**
+   * @param theme The index of the theme in getThemes()
+   * @return The URI to GET the poem of that theme
+   */
+  public URI poemUri(int theme) {
+    return poemUris[theme];
+  }
+
+  /**
+   * Pick a random line and theme as a POST body
+   *
+   * @param author The author to send the line as, not negative
+   * @return A new UTF-8 JSON body
+   */
+  public byte[] randomSentence(long author) {
+    return sentence(author, ThreadLocalRandom.current().nextInt(themes.length), 1);
+  }
+
+  /**
+   * Join random lines into a POST body for a theme
+   *
+   * @param author The author to send the sentence as, not negative
+   * @param theme The index of the theme in getThemes()
+   * @param lineCount How many random lines the sentence has, at least 1
+   * @return A new UTF-8 JSON body
+   */
+  public byte[] sentence(long author, int theme, int lineCount) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (lineCount <= 1) {
+      byte[] tail = sentenceTails[theme][random.nextInt(escapedLines.length)];
+      byte[] body = authorPrefix(author, tail.length);
+      System.arraycopy(tail, 0, body, body.length - tail.length, tail.length);
+      return body;
+    }
+
+    byte[][] picked = new byte[lineCount][];
+    int length = CONTENT_PREFIX.length + lineCount - 1 + themeTails[theme].length;
+    for (int i = 0; i < lineCount; i++) {
+      picked[i] = escapedLines[random.nextInt(escapedLines.length)];
+      length += picked[i].length;
+    }
+    byte[] body = authorPrefix(author, length);
+    int position = body.length - length;
+    System.arraycopy(CONTENT_PREFIX, 0, body, position, CONTENT_PREFIX.length);
+    position += CONTENT_PREFIX.length;
+    for (int i = 0; i < lineCount; i++) {
+      if (i > 0) {
+        body[position++] = ' ';
+      }
+      System.arraycopy(picked[i], 0, body, position, picked[i].length);
+      position += picked[i].length;
+    }
+    System.arraycopy(themeTails[theme], 0, body, position, themeTails[theme].length);
+    return body;
+  }
+
+  // A new body starting with the author, with room for a tail of the given length after it
+  private static byte[] authorPrefix(long author, int tailLength) {
+    int digits = 1;
+    for (long rest = author / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    byte[] body = new byte[AUTHOR_PREFIX.length + digits + tailLength];
+    System.arraycopy(AUTHOR_PREFIX, 0, body, 0, AUTHOR_PREFIX.length);
+    long rest = author;
+    for (int i = AUTHOR_PREFIX.length + digits - 1; i >= AUTHOR_PREFIX.length; i--) {
+      body[i] = (byte) ('0' + rest % 10);
+      rest /= 10;
+    }
+    return body;
+  }
+}
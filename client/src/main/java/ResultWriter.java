@@ -0,0 +1,133 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams one CSV line per successful request to the results file while the test runs.
+ *
+ * Sending threads put their results into a RingBuffer of primitive fields and return; the
+ * drain thread formats them into fixed-size chunks and writes each chunk with a single
+ * call, and writes a partly filled chunk after a second without new results. The output
+ * can be gzipped, which pandas reads as is.
+ */
+public class ResultWriter extends RingBuffer {
+  public static final String HEADER = "start_time,request_type,response_time,response_code\n";
+  private static final int CAPACITY = 1 << 16;
+  private static final int CHUNK_SIZE = 1 << 16;
+  // Longer than any formatted line
+  private static final int MAX_LINE_LENGTH = 64;
+  private static final byte[] POST = "POST".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] GET = "GET".getBytes(StandardCharsets.US_ASCII);
+
+  private final long[] starts = new long[CAPACITY];
+  private final long[] latencies = new long[CAPACITY];
+  private final int[] responseCodes = new int[CAPACITY];
+  private final boolean[] posts = new boolean[CAPACITY];
+
+  private final OutputStream out;
+  private final byte[] chunk = new byte[CHUNK_SIZE];
+  private int chunkLength;
+
+  /**
+   * @param filename The file to write, replaced if it exists
+   * @param gzip Whether to gzip the output
+   */
+  public ResultWriter(String filename, boolean gzip) throws IOException {
+    super(CAPACITY, "response times CSV file", "result-writer");
+    OutputStream file = new FileOutputStream(filename);
+    this.out = gzip ? new GZIPOutputStream(file, CHUNK_SIZE, true) : file;
+    byte[] header = HEADER.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(header, 0, chunk, 0, header.length);
+    chunkLength = header.length;
+    start();
+  }
+
+  /**
+   * Queue the result of a request, waiting if the writer thread is a full buffer behind
+   *
+   * @param start When the request was sent, in epoch milliseconds
+   * @param method The request method
+   * @param latency The latency in milliseconds
+   * @param responseCode The HTTP status code
+   * @throws IllegalStateException if the writer thread died
+   */
+  public void write(long start, String method, long latency, int responseCode) {
+    long sequence = claim();
+    if (sequence < 0) {
+      return;
+    }
+    int slot = slotOf(sequence);
+    starts[slot] = start;
+    latencies[slot] = latency;
+    responseCodes[slot] = responseCode;
+    posts[slot] = method.equals("POST");
+    publish(sequence);
+  }
+
+  @Override
+  protected void consume(int slot) {
+    byte[] line = chunk;
+    int pos = putLong(line, chunkLength, starts[slot]);
+    line[pos++] = ',';
+    byte[] method = posts[slot] ? POST : GET;
+    System.arraycopy(method, 0, line, pos, method.length);
+    pos += method.length;
+    line[pos++] = ',';
+    pos = putLong(line, pos, latencies[slot]);
+    line[pos++] = ',';
+    pos = putLong(line, pos, responseCodes[slot]);
+    line[pos++] = '\n';
+    chunkLength = pos;
+    if (chunkLength > CHUNK_SIZE - MAX_LINE_LENGTH) {
+      writeChunk(false);
+    }
+  }
+
+  @Override
+  protected void flush() {
+    writeChunk(true);
+  }
+
+  @Override
+  protected void finish() {
+    writeChunk(true);
+    try {
+      out.close();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  // Write the decimal digits of a value without creating a String
+  private static int putLong(byte[] buffer, int pos, long value) {
+    if (value < 0) {
+      buffer[pos++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    for (int i = pos + digits - 1; i >= pos; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return pos + digits;
+  }
+
+  private void writeChunk(boolean flush) {
+    if (!hasError()) {
+      try {
+        out.write(chunk, 0, chunkLength);
+        if (flush) {
+          out.flush();
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    chunkLength = 0;
+  }
+}
@@ -0,0 +1,188 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A bounded ring buffer filled by any number of sending threads and drained by one
+ * background thread, the base of ResultWriter and TraceWriter.
+ *
+ * A sender claims a sequence number, fills the slot it maps to in the subclass's own
+ * arrays of primitive fields and publishes it. The drain thread hands each published slot
+ * to consume() in order, and calls flush() once nothing new arrived for a second, so a
+ * crashed run loses at most the last second. When the buffer is full, senders wait for the
+ * drain thread instead of dropping entries. If the drain thread dies, claim() throws
+ * rather than leaving senders waiting for a buffer that will never empty.
+ */
+public abstract class RingBuffer implements Closeable {
+  private static final Logger logger = Logger.getLogger(RingBuffer.class.getName());
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int capacity;
+  private final String description;
+  // Sequence number + 1 of the entry last put in each slot, 0 while a slot was never used
+  private final AtomicLongArray published;
+  private final AtomicLong claimed = new AtomicLong();
+  // Sequence number of the next entry the drain thread takes
+  private volatile long consumed;
+  private volatile boolean closed;
+  // Why the drain thread died, null while it runs
+  private volatile Throwable failure;
+  private IOException error;
+  private final Thread thread;
+
+  /**
+   * @param capacity The number of slots, a power of two
+   * @param description What is written, for error messages, e.g. "trace file"
+   * @param threadName The name of the drain thread
+   */
+  protected RingBuffer(int capacity, String description, String threadName) {
+    this.capacity = capacity;
+    this.description = description;
+    this.published = new AtomicLongArray(capacity);
+    thread = new Thread(this::drain, threadName);
+    thread.setDaemon(true);
+  }
+
+  /**
+   * Start the drain thread, once the subclass is fully constructed
+   */
+  protected final void start() {
+    thread.start();
+  }
+
+  /**
+   * Claim the next slot, waiting if the drain thread is a full buffer behind
+   *
+   * @return The sequence number to fill and publish, or -1 if the buffer was closed
+   * @throws IllegalStateException if the drain thread died
+   */
+  protected final long claim() {
+    checkRunning();
+    long sequence = claimed.getAndIncrement();
+    while (sequence - consumed >= capacity) {
+      checkRunning();
+      if (closed) {
+        return -1;
+      }
+      LockSupport.parkNanos(IDLE_PARK_NANOS);
+    }
+    return sequence;
+  }
+
+  /**
+   * @return The slot a sequence number maps to
+   */
+  protected final int slotOf(long sequence) {
+    return (int) (sequence & (capacity - 1));
+  }
+
+  /**
+   * Hand a filled slot to the drain thread
+   */
+  protected final void publish(long sequence) {
+    // The volatile write makes the slot's fields visible to the drain thread
+    published.set(slotOf(sequence), sequence + 1);
+  }
+
+  /**
+   * Take the entry in a slot, on the drain thread
+   */
+  protected abstract void consume(int slot);
+
+  /**
+   * Write out what was consumed so far, on the drain thread
+   */
+  protected abstract void flush();
+
+  /**
+   * Write out the rest and close the output once the buffer is closed, on the drain thread
+   */
+  protected abstract void finish();
+
+  private void checkRunning() {
+    Throwable cause = failure;
+    if (cause != null) {
+      throw new IllegalStateException("The " + description + " writer thread died", cause);
+    }
+  }
+
+  private void drain() {
+    try {
+      long next = 0;
+      long lastFlush = System.nanoTime();
+      boolean unflushed = false;
+      while (true) {
+        int slot = slotOf(next);
+        if (published.get(slot) == next + 1) {
+          consume(slot);
+          unflushed = true;
+          consumed = ++next;
+        } else if (closed) {
+          // Senders are done before close(), so anything still unpublished was never sent
+          if (published.get(slot) != next + 1) {
+            break;
+          }
+        } else {
+          if (unflushed && System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+            flush();
+            unflushed = false;
+            lastFlush = System.nanoTime();
+          }
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+      }
+      finish();
+    } catch (RuntimeException | Error e) {
+      failure = e;
+      logger.severe(String.format("Stopped writing the %s: %s", description, e));
+      throw e;
+    }
+  }
+
+  /**
+   * @return Whether a write failed, after which entries are still consumed but not written,
+   *         so senders never wait for a full buffer
+   */
+  protected final boolean hasError() {
+    return error != null;
+  }
+
+  /**
+   * Remember the first write error, for close() to throw. Only call on the drain thread.
+   */
+  protected final void fail(IOException e) {
+    if (error == null) {
+      error = e;
+      // Keep the test running, the histograms still have every latency
+      logger.warning(String.format("Error writing %s: %s", description, e.getMessage()));
+    }
+  }
+
+  /**
+   * Write the remaining entries and close the output. Only call once no more entries are
+   * claimed.
+   *
+   * @throws IOException if any write failed or the drain thread died
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw new IOException("The " + description + " writer thread died", failure);
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+}
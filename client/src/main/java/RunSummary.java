@@ -0,0 +1,137 @@
+import org.json.JSONObject;
+
+/**
+ * The outcome of the main phase of a load test: its latencies, failures and circuit
+ * breaker statistics. Summaries of workers running at the same time are merged into the
+ * summary of the whole distributed test, see Coordinator.
+ */
+public class RunSummary {
+  private final long durationMillis;
+  private final long cpuNanos;
+  private final long failedRequests;
+  private final LatencyHistogram post;
+  private final LatencyHistogram get;
+  private final boolean circuitBreaker;
+  private final int timesOpened;
+  private final long openMillis;
+  private final long shedRequests;
+
+  /**
+   * @param durationMillis How long the main phase took
+   * @param cpuNanos The CPU time the client used, 0 if unknown
+   * @param failedRequests The number of failed requests
+   * @param post The latencies of successful POST requests
+   * @param get The latencies of successful GET requests
+   * @param breaker The circuit breaker used, or null if there was none
+   */
+  public RunSummary(long durationMillis, long cpuNanos, long failedRequests,
+                    LatencyHistogram post, LatencyHistogram get, CircuitBreaker breaker) {
+    this(durationMillis, cpuNanos, failedRequests, post, get, breaker != null,
+        breaker == null ? 0 : breaker.getTimesOpened(),
+        breaker == null ? 0 : breaker.getOpenMillis(),
+        breaker == null ? 0 : breaker.getShedRequests());
+  }
+
+  private RunSummary(long durationMillis, long cpuNanos, long failedRequests,
+                     LatencyHistogram post, LatencyHistogram get, boolean circuitBreaker,
+                     int timesOpened, long openMillis, long shedRequests) {
+    this.durationMillis = durationMillis;
+    this.cpuNanos = cpuNanos;
+    this.failedRequests = failedRequests;
+    this.post = post;
+    this.get = get;
+    this.circuitBreaker = circuitBreaker;
+    this.timesOpened = timesOpened;
+    this.openMillis = openMillis;
+    this.shedRequests = shedRequests;
+  }
+
+  /**
+   * Merge the summary of a run that ran at the same time as this one
+   *
+   * @return A new summary lasting as long as the longer run, with the requests of both
+   */
+  public RunSummary merge(RunSummary other) {
+    LatencyHistogram mergedPost = new LatencyHistogram();
+    mergedPost.add(post);
+    mergedPost.add(other.post);
+    LatencyHistogram mergedGet = new LatencyHistogram();
+    mergedGet.add(get);
+    mergedGet.add(other.get);
+    return new RunSummary(Math.max(durationMillis, other.durationMillis),
+        cpuNanos + other.cpuNanos, failedRequests + other.failedRequests, mergedPost, mergedGet,
+        circuitBreaker || other.circuitBreaker, timesOpened + other.timesOpened,
+        openMillis + other.openMillis, shedRequests + other.shedRequests);
+  }
+
+  public JSONObject toJson() {
+    return new JSONObject()
+        .put("durationMillis", durationMillis)
+        .put("cpuNanos", cpuNanos)
+        .put("failedRequests", failedRequests)
+        .put("post", post.toJson())
+        .put("get", get.toJson())
+        .put("circuitBreaker", circuitBreaker)
+        .put("timesOpened", timesOpened)
+        .put("openMillis", openMillis)
+        .put("shedRequests", shedRequests);
+  }
+
+  /**
+   * Read a summary written by toJson()
+   *
+   * @throws org.json.JSONException if the JSON is not a summary
+   */
+  public static RunSummary fromJson(JSONObject json) {
+    return new RunSummary(json.getLong("durationMillis"), json.getLong("cpuNanos"),
+        json.getLong("failedRequests"), LatencyHistogram.fromJson(json.getJSONObject("post")),
+        LatencyHistogram.fromJson(json.getJSONObject("get")), json.getBoolean("circuitBreaker"),
+        json.getInt("timesOpened"), json.getLong("openMillis"), json.getLong("shedRequests"));
+  }
+
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  public long getFailedRequests() {
+    return failedRequests;
+  }
+
+  public LatencyHistogram getPost() {
+    return post;
+  }
+
+  public LatencyHistogram getGet() {
+    return get;
+  }
+
+  /**
+   * @return The latencies of all successful requests, in a new histogram
+   */
+  public LatencyHistogram getOverall() {
+    LatencyHistogram overall = new LatencyHistogram();
+    overall.add(post);
+    overall.add(get);
+    return overall;
+  }
+
+  public boolean hasCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  public int getTimesOpened() {
+    return timesOpened;
+  }
+
+  public long getOpenMillis() {
+    return openMillis;
+  }
+
+  public long getShedRequests() {
+    return shedRequests;
+  }
+}
@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Sends the requests of a trace recorded by TraceWriter again, at the recorded pace, a
+ * multiple of it, or as fast as possible.
+ *
+ * The trace is memory-mapped and split at record boundaries into blocks of about
+ * BLOCK_SIZE bytes, by one pass that reads only the lengths in each record's header.
+ * Several shard threads take turns at the blocks, each parsing and sending only its own,
+ * so reading and scheduling keep up with traces recorded at high rates. Like
+ * OpenLoopGenerator, requests are started at their scheduled time unless
+ * the maximum number is in flight, and timed from when they were scheduled.
+ */
+public class TraceReplayer {
+  private static final Logger logger = Logger.getLogger(TraceReplayer.class.getName());
+  // Small enough that the shards' blocks interleave closely in time
+  private static final int BLOCK_SIZE = 1 << 16;
+
+  /**
+   * Starts one request
+   */
+  public interface Request {
+    /**
+     * @param method The request method, POST or GET
+     * @param uri The request URI
+     * @param body The request body, or null for none
+     * @param intendedStart When the request should have been sent, in epoch milliseconds, or 0
+     *                      when replaying as fast as possible
+     * @return Completes with whether the request succeeded; must not block until then
+     */
+    CompletableFuture<Boolean> send(String method, URI uri, byte[] body, long intendedStart);
+  }
+
+  private final MappedByteBuffer trace;
+  // Where each block starts, then where the last complete record ends
+  private final int[] blocks;
+  private final String baseUrl;
+  private final double speed;
+  private final int shards;
+  private final int maxInFlight;
+
+  /**
+   * @param filename The trace file
+   * @param baseUrl The server to send the requests to, e.g. http://localhost:8080
+   * @param speed How many times faster than recorded to send requests, or 0 for as fast as possible
+   * @param shards The number of threads reading and scheduling requests
+   * @param maxInFlight The most requests in flight at once
+   * @throws IOException if the file can't be read or is not a trace
+   */
+  public TraceReplayer(String filename, String baseUrl, double speed, int shards,
+                       int maxInFlight) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Traces over 2 GB are not supported: " + filename);
+      }
+      trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (trace.remaining() < 8 || trace.getInt(0) != TraceWriter.MAGIC) {
+      throw new IOException("Not a trace file: " + filename);
+    }
+    if (trace.getInt(4) != TraceWriter.VERSION) {
+      throw new IOException("Unsupported trace version " + trace.getInt(4) + ": " + filename);
+    }
+    this.blocks = split(trace);
+    this.baseUrl = baseUrl;
+    this.speed = speed;
+    this.shards = shards;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Send every request of the trace, then wait for those still in flight
+   *
+   * @param request Sends a request
+   * @param timeoutMinutes How long to wait for the remaining requests
+   * @return The number of successful requests
+   */
+  public int run(Request request, long timeoutMinutes) throws InterruptedException {
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    AtomicInteger successfulRequests = new AtomicInteger();
+    AtomicLong scheduled = new AtomicLong();
+    long startNanos = System.nanoTime();
+    long startMillis = System.currentTimeMillis();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < shards; i++) {
+      int shard = i;
+      Thread thread = new Thread(() -> {
+        try {
+          replayShard(shard, request, inFlight, scheduled, successfulRequests, startNanos,
+              startMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, "replay-" + i);
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    logger.info(String.format("Replayed %d requests, waiting for the ones still in flight...",
+        scheduled.get()));
+    if (!inFlight.tryAcquire(maxInFlight, timeoutMinutes, TimeUnit.MINUTES)) {
+      logger.warning("Warning: Not all requests finished before timeout!");
+    }
+    return successfulRequests.get();
+  }
+
+  // Find the blocks' starts by skipping from record to record
+  private static int[] split(ByteBuffer trace) {
+    int[] starts = new int[16];
+    int count = 0;
+    int limit = trace.limit();
+    int position = 8;
+    int nextBlock = position;
+    // The offset, method and path length come before the path
+    while (limit - position >= 7) {
+      int bodyAt = position + 7 + (trace.getShort(position + 5) & 0xffff);
+      if (limit - bodyAt < 4) {
+        break;
+      }
+      int bodyLength = trace.getInt(bodyAt);
+      if (bodyLength < 0 || limit - bodyAt - 4 < bodyLength) {
+        break;
+      }
+      if (position >= nextBlock) {
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = position;
+        nextBlock = position + BLOCK_SIZE;
+      }
+      position = bodyAt + 4 + bodyLength;
+    }
+    if (position < limit) {
+      // A run that died while recording leaves part of its last request
+      logger.warning(String.format("Trace ends in a partial request, skipping its last %d bytes",
+          limit - position));
+    }
+    int[] blocks = Arrays.copyOf(starts, count + 1);
+    blocks[count] = position;
+    return blocks;
+  }
+
+  // Send the requests in every shards-th block starting at the shard-th
+  private void replayShard(int shard, Request request, Semaphore inFlight, AtomicLong scheduled,
+                           AtomicInteger successfulRequests, long startNanos, long startMillis)
+      throws InterruptedException {
+    ByteBuffer records = trace.duplicate();
+    // A trace has only a few distinct paths
+    Map<String, URI> uris = new HashMap<>();
+    for (int block = shard; block < blocks.length - 1; block += shards) {
+      records.limit(blocks[block + 1]).position(blocks[block]);
+      while (records.hasRemaining()) {
+        int offset = records.getInt();
+        byte method = records.get();
+        byte[] path = new byte[records.getShort() & 0xffff];
+        records.get(path);
+        byte[] body = new byte[records.getInt()];
+        records.get(body);
+        URI uri = uris.computeIfAbsent(new String(path, StandardCharsets.UTF_8),
+            p -> URI.create(baseUrl + p));
+
+        long intendedStart = 0;
+        if (speed > 0) {
+          long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(offset) / speed);
+          long wait;
+          while ((wait = startNanos + offsetNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+          }
+          intendedStart = startMillis + TimeUnit.NANOSECONDS.toMillis(offsetNanos);
+        }
+
+        inFlight.acquire();
+        scheduled.incrementAndGet();
+        boolean post = method == TraceWriter.POST;
+        request.send(post ? "POST" : "GET", uri, post ? body : null, intendedStart)
+            .whenComplete((successful, e) -> {
+              if (Boolean.TRUE.equals(successful)) {
+                successfulRequests.incrementAndGet();
+              }
+              inFlight.release();
+            });
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records every request a test sends to a binary trace file, for TraceReplayer to send
+ * again later, e.g. to compare deployments on exactly the same workload.
+ *
+ * The file starts with the magic bytes "PIBT" and a version int. Each request follows as
+ * an int offset in milliseconds from the start of the run, a method byte (0 for POST, 1
+ * for GET), a short path length and the UTF-8 path, then an int body length and the body,
+ * all big-endian. Only the path is kept, so a trace can be replayed against any server.
+ *
+ * Like ResultWriter, sending threads put requests into a RingBuffer and return, and its
+ * drain thread writes them.
+ */
+public class TraceWriter extends RingBuffer {
+  public static final int MAGIC = 0x50494254; // "PIBT"
+  public static final int VERSION = 1;
+  public static final byte POST = 0;
+  public static final byte GET = 1;
+  private static final int CAPACITY = 1 << 14;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final int[] offsets = new int[CAPACITY];
+  private final byte[] methods = new byte[CAPACITY];
+  private final String[] paths = new String[CAPACITY];
+  private final byte[][] bodies = new byte[CAPACITY][];
+
+  private final DataOutputStream out;
+
+  /**
+   * @param filename The file to write, replaced if it exists
+   */
+  public TraceWriter(String filename) throws IOException {
+    super(CAPACITY, "trace file", "trace-writer");
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename),
+        BUFFER_SIZE));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    start();
+  }
+
+  /**
+   * Queue a request, waiting if the writer thread is a full buffer behind
+   *
+   * @param offset When the request was meant to be sent, in milliseconds from the start of the run
+   * @param method The request method, POST or GET
+   * @param path The request path, e.g. /poem/love
+   * @param body The request body, or null for none; must not be changed afterwards
+   * @throws IllegalStateException if the writer thread died
+   */
+  public void write(long offset, String method, String path, byte[] body) {
+    long sequence = claim();
+    if (sequence < 0) {
+      return;
+    }
+    int slot = slotOf(sequence);
+    offsets[slot] = (int) Math.max(0, Math.min(offset, Integer.MAX_VALUE));
+    methods[slot] = method.equals("POST") ? POST : GET;
+    paths[slot] = path;
+    bodies[slot] = body;
+    publish(sequence);
+  }
+
+  @Override
+  protected void consume(int slot) {
+    byte[] path = paths[slot].getBytes(StandardCharsets.UTF_8);
+    byte[] body = bodies[slot];
+    // Let the request be collected once it is written
+    paths[slot] = null;
+    bodies[slot] = null;
+    if (hasError()) {
+      return;
+    }
+    try {
+      out.writeInt(offsets[slot]);
+      out.writeByte(methods[slot]);
+      out.writeShort(path.length);
+      out.write(path);
+      out.writeInt(body == null ? 0 : body.length);
+      if (body != null) {
+        out.write(body);
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  @Override
+  protected void flush() {
+    if (!hasError()) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  @Override
+  protected void finish() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+}
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A declarative workload for the main phase, read from a JSON file: a sequence of timed
+ * phases, each with its own request mix.
+ *
+ * A phase sets the POST:GET ratio, how skewed theme popularity is, the think time between
+ * a closed-loop user's requests and the number of lines per POSTed sentence. Theme
+ * popularity follows a Zipf distribution over the themes in order, the first being the
+ * most popular, with exponent themeSkew; 0 picks themes uniformly. Top-level settings
+ * other than themes and phases are defaults for every phase, e.g.
+ *
+ * <pre>
+ * {
+ *   "themes": ["love", "death", "nature", "beauty", "random"],
+ *   "themeSkew": 1.2,
+ *   "phases": [
+ *     {"name": "write-heavy", "seconds": 60, "post": 4, "get": 1},
+ *     {"name": "read-heavy", "seconds": 240, "post": 1, "get": 9,
+ *      "thinkTimeMs": {"distribution": "exponential", "mean": 200},
+ *      "sentenceLines": {"distribution": "uniform", "min": 1, "max": 4}}
+ *   ]
+ * }
+ * </pre>
+ */
+public class WorkloadProfile {
+  private final String[] themes;
+  private final Phase[] phases;
+  private final List<Phase> phaseList;
+  // When each phase ends, from the start of the main phase
+  private final long[] phaseEndMillis;
+
+  /**
+   * A distribution to draw think times or line counts from: a number for a constant, or
+   * {"distribution": "constant", "value": v}, {"distribution": "uniform", "min": a, "max": b}
+   * or {"distribution": "exponential", "mean": m}
+   */
+  public static final class Distribution {
+    private enum Kind { CONSTANT, UNIFORM, EXPONENTIAL }
+
+    private final Kind kind;
+    private final double a;
+    private final double b;
+
+    private Distribution(Kind kind, double a, double b) {
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+    }
+
+    private static Distribution parse(Object value) {
+      if (value instanceof Number) {
+        return constant(((Number) value).doubleValue());
+      }
+      if (!(value instanceof JSONObject)) {
+        throw new IllegalArgumentException("Expected a number or a distribution, got " + value);
+      }
+      JSONObject json = (JSONObject) value;
+      String kind = json.optString("distribution", "constant").toLowerCase(Locale.ROOT);
+      switch (kind) {
+        case "constant":
+          return constant(json.getDouble("value"));
+        case "uniform":
+          double min = json.getDouble("min");
+          double max = json.getDouble("max");
+          if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid uniform distribution: " + json);
+          }
+          return new Distribution(Kind.UNIFORM, min, max);
+        case "exponential":
+          double mean = json.getDouble("mean");
+          if (mean < 0) {
+            throw new IllegalArgumentException("Invalid exponential distribution: " + json);
+          }
+          return new Distribution(Kind.EXPONENTIAL, mean, 0);
+        default:
+          throw new IllegalArgumentException("Unknown distribution: " + kind);
+      }
+    }
+
+    private static Distribution constant(double value) {
+      if (value < 0) {
+        throw new IllegalArgumentException("Expected a value of at least 0, got " + value);
+      }
+      return new Distribution(Kind.CONSTANT, value, 0);
+    }
+
+    /**
+     * @return A random value, not negative
+     */
+    public double sample() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      switch (kind) {
+        case UNIFORM:
+          return a + random.nextDouble() * (b - a);
+        case EXPONENTIAL:
+          return -a * Math.log(1 - random.nextDouble());
+        default:
+          return a;
+      }
+    }
+
+    @Override
+    public String toString() {
+      switch (kind) {
+        case UNIFORM:
+          return String.format(Locale.ROOT, "uniform %.0f-%.0f", a, b);
+        case EXPONENTIAL:
+          return String.format(Locale.ROOT, "exponential mean %.0f", a);
+        default:
+          return String.format(Locale.ROOT, "%.0f", a);
+      }
+    }
+  }
+
+  /**
+   * One stretch of the workload with a fixed mix
+   */
+  public static final class Phase {
+    private final String name;
+    private final long millis;
+    private final double postFraction;
+    private final double themeSkew;
+    private final Distribution thinkTimeMs;
+    private final Distribution sentenceLines;
+    // The cumulative Zipf weights for the last number of themes asked for, see pickTheme
+    private volatile double[] themeCdf = new double[0];
+
+    private Phase(String name, JSONObject json) {
+      this.name = name;
+      double seconds = json.getDouble("seconds");
+      double post = json.optDouble("post", 1);
+      double get = json.optDouble("get", 1);
+      if (seconds <= 0 || post < 0 || get < 0 || post + get == 0) {
+        throw new IllegalArgumentException("Phase " + name
+            + " needs seconds > 0 and a post or get weight > 0");
+      }
+      this.millis = (long) (seconds * 1000);
+      this.postFraction = post / (post + get);
+      this.themeSkew = json.optDouble("themeSkew", 0);
+      if (themeSkew < 0) {
+        throw new IllegalArgumentException("Phase " + name + " needs themeSkew >= 0");
+      }
+      this.thinkTimeMs = Distribution.parse(json.opt("thinkTimeMs") == null ? 0
+          : json.get("thinkTimeMs"));
+      this.sentenceLines = Distribution.parse(json.opt("sentenceLines") == null ? 1
+          : json.get("sentenceLines"));
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return Whether the next request should be a POST
+     */
+    public boolean nextIsPost() {
+      return ThreadLocalRandom.current().nextDouble() < postFraction;
+    }
+
+    /**
+     * Pick a theme by Zipf popularity
+     *
+     * @param themeCount The number of themes, ranked by popularity
+     * @return The index of the theme
+     */
+    public int pickTheme(int themeCount) {
+      if (themeSkew == 0) {
+        return ThreadLocalRandom.current().nextInt(themeCount);
+      }
+      double[] cdf = themeCdf;
+      if (cdf.length != themeCount) {
+        // Themes only change when the server's do, so this is rarely recomputed
+        cdf = new double[themeCount];
+        double total = 0;
+        for (int rank = 1; rank <= themeCount; rank++) {
+          total += 1 / Math.pow(rank, themeSkew);
+          cdf[rank - 1] = total;
+        }
+        for (int i = 0; i < themeCount; i++) {
+          cdf[i] /= total;
+        }
+        themeCdf = cdf;
+      }
+      double draw = ThreadLocalRandom.current().nextDouble();
+      for (int i = 0; i < cdf.length - 1; i++) {
+        if (draw < cdf[i]) {
+          return i;
+        }
+      }
+      return cdf.length - 1;
+    }
+
+    /**
+     * @return How long a closed-loop user waits before its next request, in milliseconds
+     */
+    public long thinkTimeMillis() {
+      return Math.round(thinkTimeMs.sample());
+    }
+
+    /**
+     * @return How many lines the next POSTed sentence has, at least 1
+     */
+    public int sentenceLines() {
+      return (int) Math.max(1, Math.round(sentenceLines.sample()));
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: %d s, %.0f%% POST, theme skew %.2f, think time %s ms, "
+              + "%s lines per sentence", name, TimeUnit.MILLISECONDS.toSeconds(millis),
+          postFraction * 100, themeSkew, thinkTimeMs, sentenceLines);
+    }
+  }
+
+  private WorkloadProfile(JSONObject json) {
+    List<String> themeNames = new ArrayList<>();
+    JSONArray themeArray = json.optJSONArray("themes");
+    if (themeArray != null) {
+      Set<String> unique = new LinkedHashSet<>();
+      for (int i = 0; i < themeArray.length(); i++) {
+        String theme = themeArray.getString(i).trim().toLowerCase(Locale.ROOT);
+        // "" stands for the random theme, as in PayloadCorpus
+        unique.add(theme.equals("random") ? "" : theme);
+      }
+      themeNames.addAll(unique);
+    }
+    this.themes = themeNames.isEmpty() ? null : themeNames.toArray(new String[0]);
+
+    JSONArray phaseArray = json.getJSONArray("phases");
+    if (phaseArray.length() == 0) {
+      throw new IllegalArgumentException("A profile needs at least one phase");
+    }
+    this.phases = new Phase[phaseArray.length()];
+    this.phaseEndMillis = new long[phases.length];
+    long end = 0;
+    for (int i = 0; i < phases.length; i++) {
+      JSONObject phase = new JSONObject();
+      for (String key : json.keySet()) {
+        if (!key.equals("themes") && !key.equals("phases")) {
+          phase.put(key, json.get(key));
+        }
+      }
+      JSONObject own = phaseArray.getJSONObject(i);
+      for (String key : own.keySet()) {
+        phase.put(key, own.get(key));
+      }
+      phases[i] = new Phase(phase.optString("name", "phase " + (i + 1)), phase);
+      end += phases[i].millis;
+      phaseEndMillis[i] = end;
+    }
+    this.phaseList = List.of(phases);
+  }
+
+  /**
+   * Read a profile from a JSON file
+   *
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if the file is not a valid profile
+   */
+  public static WorkloadProfile load(String filename) throws IOException {
+    String text = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+    try {
+      return new WorkloadProfile(new JSONObject(text));
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Invalid profile " + filename + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return The themes by popularity, "" for the random theme, or null to use the client's
+   */
+  public String[] getThemes() {
+    return themes == null ? null : themes.clone();
+  }
+
+  public List<Phase> getPhases() {
+    return phaseList;
+  }
+
+  /**
+   * @return The length of all phases together, in milliseconds
+   */
+  public long getDurationMillis() {
+    return phaseEndMillis[phaseEndMillis.length - 1];
+  }
+
+  /**
+   * @param elapsedMillis The time since the start of the main phase
+   * @return The phase running then, or null once the profile is over
+   */
+  public Phase phaseAt(long elapsedMillis) {
+    for (int i = 0; i < phases.length; i++) {
+      if (elapsedMillis < phaseEndMillis[i]) {
+        return phases[i];
+      }
+    }
+    return null;
+  }
+}
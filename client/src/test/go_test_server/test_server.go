@@ -3,6 +3,8 @@ package main
 import (
 	"log"
 	"net/http"
+	"sort"
+	"strings"
 
 	"github.com/gin-gonic/gin"
 )
@@ -54,6 +56,16 @@ func setupRouter(r *gin.Engine) {
 	r.GET("/poem/:theme", getPoemByTheme)
 	r.GET("/poem", getPoem)
 	r.POST("/sentence", postSentence)
+	r.GET("/themes", getThemes)
+}
+
+func getThemes(c *gin.Context) {
+	themes := make([]string, 0, len(validThemes))
+	for theme := range validThemes {
+		themes = append(themes, strings.ToLower(theme))
+	}
+	sort.Strings(themes)
+	c.JSON(http.StatusOK, gin.H{"themes": themes})
 }
 
 func getPoemByTheme(c *gin.Context) {
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent.SQSMessage;
+
+import benchmarks.ConsumerBenchmark;
+
+public class ConsumerFixture implements ConsumerBenchmark.Fixture {
+    private final Context context = new BenchmarkContext();
+    private final InMemorySentenceStore store = new InMemorySentenceStore();
+    private final SentenceConsumer consumer = new SentenceConsumer(store);
+    private final SQSEvent event;
+    // Already consumed once, so every message is a redelivery
+    private final SQSEvent redelivered;
+    private long nextMessageId;
+
+    public ConsumerFixture(int batchSize) {
+        event = createEvent(batchSize);
+        redelivered = createEvent(batchSize);
+        consumer.handleRequest(redelivered, context);
+        drain();
+    }
+
+    private SQSEvent createEvent(int batchSize) {
+        List<String> themes = store.themes().current().themes();
+        List<SQSMessage> messages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            String theme = themes.get(i % themes.size());
+            SQSMessage message = new SQSMessage();
+            message.setMessageId("message-" + nextMessageId++);
+            message.setBody(SentenceJson.writeSentence(new Sentence(i, "Line " + i + " of a poem, long enough to be typical", theme)));
+            messages.add(message);
+        }
+        SQSEvent event = new SQSEvent();
+        event.setRecords(messages);
+        return event;
+    }
+
+    @Override
+    public Object consumeBatch() {
+        // Fresh message IDs, otherwise the consumer would skip every message as a redelivery
+        for (SQSMessage message : event.getRecords()) {
+            message.setMessageId("message-" + nextMessageId++);
+        }
+        SQSBatchResponse response = consumer.handleRequest(event, context);
+        drain();
+        return response;
+    }
+
+    @Override
+    public Object consumeRedeliveredBatch() {
+        return consumer.handleRequest(redelivered, context);
+    }
+
+    private void drain() {
+        for (String theme : store.themes().current().themes()) {
+            while (store.claimPoem(theme, context) != null) {
+                // Drain the ready poems
+            }
+            store.claimOldestSentencesByTheme(theme, event.getRecords().size(), context);
+        }
+    }
+}
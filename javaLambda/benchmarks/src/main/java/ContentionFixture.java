@@ -0,0 +1,33 @@
+import com.amazonaws.services.lambda.runtime.Context;
+
+import benchmarks.ContentionBenchmark;
+
+public class ContentionFixture implements ContentionBenchmark.Fixture {
+    private static final String MESSAGE = "{\"author\":42,\"content\":\"Shall I compare thee to a summer's day?\",\"theme\":\"love\"}";
+
+    private final Context context = new BenchmarkContext();
+    private final SortKeyGenerator keyGenerator = new SortKeyGenerator();
+    private final InMemorySentenceStore store = new InMemorySentenceStore();
+    private final SqsBatchSender sender;
+
+    public ContentionFixture(long sqsLatencyMicros) {
+        FakeSqsClient sqsClient = new FakeSqsClient(sqsLatencyMicros);
+        sender = new SqsBatchSender(() -> sqsClient, "https://sqs.us-west-2.amazonaws.com/000000000000/benchmark.fifo");
+    }
+
+    @Override
+    public Object nextSortKey() {
+        return keyGenerator.nextKey();
+    }
+
+    @Override
+    public Object storeAndClaim() {
+        store.storeSentence(42, "Shall I compare thee to a summer's day?", "love", context);
+        return store.claimOldestSentencesByTheme("love", 1, context);
+    }
+
+    @Override
+    public void sendMessage() {
+        sender.send(MESSAGE, "love", "42-" + keyGenerator.nextKey());
+    }
+}
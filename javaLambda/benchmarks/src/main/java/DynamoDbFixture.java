@@ -0,0 +1,78 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import benchmarks.DynamoDbBenchmark;
+
+public class DynamoDbFixture implements DynamoDbBenchmark.Fixture {
+    private static final int POEM_LINES = 8;
+    private static final int SEEDED_SENTENCES = 200;
+
+    private final Context context = new BenchmarkContext();
+    private final SentenceDao dao = new SentenceDao();
+    private final Map<String, Sentence> batch = new LinkedHashMap<>();
+    private final Map<String, Sentence> poem = new LinkedHashMap<>();
+    private long lostRaces;
+    private long emptyClaims;
+
+    public DynamoDbFixture() {
+        for (int i = 0; i < SentenceDao.MAX_BATCH_SIZE; i++) {
+            batch.put(Integer.toString(i), new Sentence(i, "Line " + i + " of a poem, long enough to be typical", "death"));
+        }
+        for (int i = 0; i < POEM_LINES; i++) {
+            poem.put(Integer.toString(i), new Sentence(i, "Line " + i + " of a poem about love", "love"));
+        }
+
+        // The read benchmark queries a theme nothing else claims from
+        Map<String, Sentence> seed = new LinkedHashMap<>();
+        for (int i = 0; i < SEEDED_SENTENCES; i++) {
+            seed.put(Integer.toString(i), new Sentence(i, "Line " + i + " of a poem about nature", "nature"));
+        }
+        dao.storeSentences(seed, context);
+    }
+
+    @Override
+    public Object storeBatch() {
+        return dao.storeSentences(batch, context);
+    }
+
+    @Override
+    public Object storeAndClaim() {
+        dao.storeSentences(poem, context);
+        return dao.claimOldestSentencesByTheme("love", POEM_LINES, context);
+    }
+
+    @Override
+    public Object storeAndClaimOne() {
+        dao.storeSentence(42, "Shall I compare thee to a summer's day?", "beauty", context);
+        // Every claim transaction is timed as a delete, so the ones beyond the last were lost races
+        Metrics metrics = Metrics.start("DynamoDbBenchmark");
+        List<Sentence> claimed = dao.claimOldestSentencesByTheme("beauty", 1, context);
+        LatencyHistogram attempts = metrics.histogram(Metrics.Phase.DELETE);
+        long transactions = attempts == null ? 0 : attempts.count();
+        if (claimed.isEmpty()) {
+            emptyClaims++;
+            lostRaces += transactions;
+        } else {
+            lostRaces += transactions - 1;
+        }
+        return claimed;
+    }
+
+    @Override
+    public long lostRaces() {
+        return lostRaces;
+    }
+
+    @Override
+    public long emptyClaims() {
+        return emptyClaims;
+    }
+
+    @Override
+    public Object readOldest() {
+        return dao.getOldestSentencesByTheme("nature", PoemAssembler.MAX_LINES, context);
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import benchmarks.JsonCodecBenchmark;
+
+/**
+ * The tree variants repeat the Gson JsonObject code the handlers used before SentenceJson
+ */
+public class JsonCodecFixture implements JsonCodecBenchmark.Fixture {
+    private static final Gson gson = new Gson();
+
+    private final String message;
+    private final Poem poem;
+
+    public JsonCodecFixture() {
+        List<Sentence> lines = new ArrayList<>();
+        for (int i = 0; i < PoemAssembler.MAX_LINES; i++) {
+            lines.add(new Sentence(i, "Line " + i + " of a poem about love, long enough to be typical", "love"));
+        }
+        poem = Poem.fromSentences("love", lines);
+        message = SentenceJson.writeSentence(new Sentence(42, "Shall I compare thee to a summer's day?", "love"));
+    }
+
+    @Override
+    public Object treePost() {
+        JsonObject bodyJson = JsonParser.parseString(RequestPathFixture.BODY).getAsJsonObject();
+        if (!bodyJson.has("author") || !bodyJson.get("author").isJsonPrimitive() || !bodyJson.get("author").getAsJsonPrimitive().isNumber()) {
+            return null;
+        }
+        if (!bodyJson.has("content") || !bodyJson.get("content").isJsonPrimitive() || bodyJson.get("content").getAsString().isEmpty()) {
+            return null;
+        }
+        int author = bodyJson.get("author").getAsInt();
+        String content = bodyJson.get("content").getAsString().trim();
+        String theme = bodyJson.has("theme") && !bodyJson.get("theme").getAsString().isEmpty()
+                ? bodyJson.get("theme").getAsString().trim().toLowerCase()
+                : "random";
+
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("author", author);
+        jsonObject.addProperty("content", content);
+        jsonObject.addProperty("theme", theme);
+        return gson.toJson(jsonObject);
+    }
+
+    @Override
+    public Object streamingPost() {
+        Sentence sentence = SentenceJson.readSentence(RequestPathFixture.BODY, "random");
+        return SentenceJson.writeSentence(new Sentence(sentence.getAuthor(), sentence.getContent().trim(),
+            sentence.getTheme().trim().toLowerCase()));
+    }
+
+    @Override
+    public Object treeMessage() {
+        JsonObject jsonObject = JsonParser.parseString(message).getAsJsonObject();
+        if (!jsonObject.has("author") || !jsonObject.has("content") || !jsonObject.has("theme")) {
+            return null;
+        }
+        return new Sentence(jsonObject.get("author").getAsInt(), jsonObject.get("content").getAsString(),
+            jsonObject.get("theme").getAsString());
+    }
+
+    @Override
+    public Object streamingMessage() {
+        return SentenceJson.readSentence(message, null);
+    }
+
+    @Override
+    public Object treePoem() {
+        JsonObject poemJson = new JsonObject();
+        poemJson.addProperty("theme", poem.getTheme());
+        poemJson.addProperty("contents", poem.getContents());
+        JsonArray authorsArray = new JsonArray();
+        for (int author : poem.getAuthors()) {
+            authorsArray.add(author);
+        }
+        poemJson.add("authors", authorsArray);
+        return gson.toJson(poemJson);
+    }
+
+    @Override
+    public Object streamingPoem() {
+        return SentenceJson.writePoem(poem);
+    }
+}
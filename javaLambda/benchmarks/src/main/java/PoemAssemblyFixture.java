@@ -0,0 +1,32 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import benchmarks.PoemAssemblyBenchmark;
+
+public class PoemAssemblyFixture implements PoemAssemblyBenchmark.Fixture {
+    private final Context context = new BenchmarkContext();
+    private final InMemorySentenceStore store = new InMemorySentenceStore();
+    private final List<Sentence> sentences = new ArrayList<>();
+
+    public PoemAssemblyFixture(int lines) {
+        for (int i = 0; i < lines; i++) {
+            sentences.add(new Sentence(i, "Line " + i + " of a poem about love, long enough to be typical", "love"));
+        }
+    }
+
+    @Override
+    public Object fromSentences() {
+        return Poem.fromSentences("love", sentences);
+    }
+
+    @Override
+    public Object assembleAndClaim() {
+        for (Sentence sentence : sentences) {
+            store.storeSentence(sentence.getAuthor(), sentence.getContent(), sentence.getTheme(), context);
+        }
+        store.assemblePoem("love", sentences.size(), context);
+        return store.claimPoem("love", context);
+    }
+}
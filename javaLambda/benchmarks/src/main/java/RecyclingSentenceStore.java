@@ -0,0 +1,33 @@
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * In-memory store that never runs dry: claimed sentences are appended again
+ * at the tail, so GET benchmarks find a poem on every call without a writer.
+ * Optionally a fixed ready poem is served, modelling a full poem buffer.
+ */
+public class RecyclingSentenceStore extends InMemorySentenceStore {
+    private final Poem readyPoem;
+
+    /**
+     * @param readyPoem The poem claimPoem returns, or null to model an empty poem buffer
+     */
+    public RecyclingSentenceStore(Poem readyPoem) {
+        this.readyPoem = readyPoem;
+    }
+
+    @Override
+    public List<Sentence> claimOldestSentencesByTheme(String theme, int n, Context context) {
+        List<Sentence> claimed = super.claimOldestSentencesByTheme(theme, n, context);
+        for (Sentence sentence : claimed) {
+            storeSentence(sentence.getAuthor(), sentence.getContent(), sentence.getTheme(), context);
+        }
+        return claimed;
+    }
+
+    @Override
+    public Poem claimPoem(String theme, Context context) {
+        return readyPoem != null ? readyPoem : super.claimPoem(theme, context);
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+
+import benchmarks.RequestPathBenchmark;
+
+public class RequestPathFixture implements RequestPathBenchmark.Fixture {
+    static final String BODY = "{\"author\": 42, \"content\": \"Shall I compare thee to a summer's day?\", \"theme\": \"Love\"}";
+    private static final String[] THEMES = {"love", "Death", "nature", "BEAUTY", "random", "winter"};
+    private static final String[][] REQUESTS = {
+        {"POST", "/sentence"}, {"GET", "/poem"}, {"GET", "/poem/love"}, {"GET", "/poem/Nature"},
+        {"GET", "/poem/winter"}, {"GET", "/poems"}, {"PUT", "/sentence"}};
+    private static final List<String> LEGACY_THEMES = Arrays.asList("random", "love", "death", "nature", "beauty");
+
+    private final Context context = new BenchmarkContext();
+    private final SentenceStore store;
+    private final PostSentenceGetPoemHandler handler;
+    private final APIGatewayV2HTTPEvent post = event("POST", "/sentence", BODY);
+    private final APIGatewayV2HTTPEvent get = event("GET", "/poem/love", null);
+    private final APIGatewayV2HTTPEvent unknown = event("GET", "/poems/love", null);
+    private int nextTheme;
+    private int nextRequest;
+
+    public RequestPathFixture(boolean readyPoems) {
+        List<Sentence> lines = new ArrayList<>();
+        for (int i = 0; i < PoemAssembler.MAX_LINES; i++) {
+            lines.add(new Sentence(i, "Line " + i + " of a poem about love, long enough to be typical", "love"));
+        }
+        store = new RecyclingSentenceStore(readyPoems ? Poem.fromSentences("love", lines) : null);
+        for (Sentence line : lines) {
+            store.storeSentence(line.getAuthor(), line.getContent(), line.getTheme(), context);
+        }
+        handler = new PostSentenceGetPoemHandler(store, new FakeSqsClient(0));
+    }
+
+    static APIGatewayV2HTTPEvent event(String method, String path, String body) {
+        return APIGatewayV2HTTPEvent.builder()
+            .withRawPath(path)
+            .withBody(body)
+            .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod(method).withPath(path).build())
+                .build())
+            .build();
+    }
+
+    @Override
+    public Object postSentence() {
+        return handler.handleRequest(post, context);
+    }
+
+    @Override
+    public Object getPoem() {
+        return handler.handleRequest(get, context);
+    }
+
+    @Override
+    public Object unknownRoute() {
+        return handler.handleRequest(unknown, context);
+    }
+
+    @Override
+    public Object regexDispatch() {
+        String[] request = nextRequest();
+        String httpMethod = request[0];
+        String path = request[1];
+        if ("POST".equalsIgnoreCase(httpMethod) && path.matches("^/sentence$")) {
+            return PostSentenceGetPoemHandler.Action.STORE_SENTENCE;
+        } else if ("GET".equalsIgnoreCase(httpMethod) && path.matches("(?i)^/poem(/(random|love|death|nature|beauty))?$")) {
+            String theme = "random";
+            String[] pathParts = path.split("/");
+            if (pathParts.length > 2) {
+                theme = pathParts[2].toLowerCase();
+            }
+            theme = theme.toLowerCase().trim();
+            return LEGACY_THEMES.contains(theme) ? theme : "random";
+        }
+        return null;
+    }
+
+    @Override
+    public Object routerDispatch() {
+        String[] request = nextRequest();
+        return handler.router.match(request[0], request[1]);
+    }
+
+    private String[] nextRequest() {
+        nextRequest = (nextRequest + 1) % REQUESTS.length;
+        return REQUESTS[nextRequest];
+    }
+
+    @Override
+    public Object validateBody() {
+        return SentenceJson.readSentence(BODY, "random");
+    }
+
+    @Override
+    public Object validateTheme() {
+        nextTheme = (nextTheme + 1) % THEMES.length;
+        return store.validateTheme(THEMES[nextTheme]);
+    }
+}
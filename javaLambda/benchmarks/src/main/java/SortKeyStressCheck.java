@@ -0,0 +1,136 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * Stress check for SortKeyGenerator: several containers, each one generator shared by
+ * several request threads, write sentences into one store at a target rate, then at full
+ * speed so the sequence rolls over into the next millisecond. It fails unless
+ * - every key is unique across all containers
+ * - every thread sees its keys strictly increasing
+ * - every key decodes to a time between the start of the run and shortly after its end
+ * - every sentence written can be claimed back from the store exactly once
+ *
+ * Unlike the JMH benchmarks this asserts rather than measures. Run it with
+ * java -cp target/benchmarks.jar SortKeyStressCheck [seconds] [writesPerSecond]
+ * It exits with status 1 on the first failed check.
+ */
+public class SortKeyStressCheck {
+    private static final int CONTAINERS = 4;
+    private static final int THREADS_PER_CONTAINER = 4;
+    private static final String THEME = "love";
+    // Keys may run ahead of the wall clock by this much when the sequence rolls over
+    private static final long MAX_CLOCK_LEAD_MS = 1000;
+    // Caps the full-speed phase so the check fits in a small heap
+    private static final int BURST_KEYS_PER_THREAD = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        check("paced", seconds, rate);
+        check("burst", 0, 0);
+        System.out.println("All checks passed.");
+    }
+
+    // Write keys with every thread, paced to rate writes/s for seconds, or at full speed if rate is 0
+    private static void check(String name, int seconds, int rate) throws InterruptedException {
+        Context context = new BenchmarkContext();
+        InMemorySentenceStore store = new InMemorySentenceStore();
+        int threads = CONTAINERS * THREADS_PER_CONTAINER;
+        List<List<String>> keysByThread = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        long startMillis = System.currentTimeMillis();
+
+        for (int c = 0; c < CONTAINERS; c++) {
+            SortKeyGenerator generator = new SortKeyGenerator();
+            for (int t = 0; t < THREADS_PER_CONTAINER; t++) {
+                List<String> keys = new ArrayList<>();
+                keysByThread.add(keys);
+                workers.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long begin = System.nanoTime();
+                    long count = rate > 0 ? (long) seconds * rate / threads : BURST_KEYS_PER_THREAD;
+                    long gapNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0;
+                    for (long i = 0; i < count; i++) {
+                        long wait;
+                        while (gapNanos > 0 && (wait = begin + i * gapNanos - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        String key = generator.nextKey();
+                        keys.add(key);
+                        store.storeSentence(42, key, THEME, context);
+                    }
+                }));
+            }
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long endMillis = System.currentTimeMillis();
+
+        Set<String> allKeys = new HashSet<>();
+        long written = 0;
+        for (List<String> keys : keysByThread) {
+            String previous = null;
+            for (String key : keys) {
+                written++;
+                if (!allKeys.add(key)) {
+                    fail(name, "duplicate key " + key);
+                }
+                if (previous != null && compareKeys(previous, key) >= 0) {
+                    fail(name, "key " + key + " does not follow " + previous + " on its thread");
+                }
+                long millis = SortKeyGenerator.toEpochMillis(new BigDecimal(key));
+                if (millis < startMillis || millis > endMillis + MAX_CLOCK_LEAD_MS) {
+                    fail(name, "key " + key + " decodes to " + millis + ", outside the run "
+                            + startMillis + "-" + endMillis);
+                }
+                previous = key;
+            }
+        }
+
+        Set<String> claimed = new HashSet<>();
+        List<Sentence> batch;
+        while (!(batch = store.claimOldestSentencesByTheme(THEME, 1000, context)).isEmpty()) {
+            for (Sentence sentence : batch) {
+                if (!claimed.add(sentence.getContent())) {
+                    fail(name, "sentence " + sentence.getContent() + " claimed twice");
+                }
+            }
+        }
+        if (!claimed.equals(allKeys)) {
+            fail(name, (written - claimed.size()) + " of " + written + " writes lost");
+        }
+
+        double elapsed = Math.max(1, endMillis - startMillis) / 1000.0;
+        System.out.printf("%s: %d unique keys from %d containers x %d threads in %.1f s (%.0f writes/s)%n",
+                name, written, CONTAINERS, THREADS_PER_CONTAINER, elapsed, written / elapsed);
+    }
+
+    // Keys are decimal numbers without leading zeros, so the longer one is larger
+    private static int compareKeys(String a, String b) {
+        return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+    }
+
+    private static void fail(String check, String message) {
+        System.err.println(check + ": FAILED: " + message);
+        System.exit(1);
+    }
+}
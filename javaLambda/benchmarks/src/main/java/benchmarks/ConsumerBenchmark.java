@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of SentenceConsumer on one SQS batch with an in-memory store: parsing,
+ * storing and topping up the poem buffers. Each operation also drains the store,
+ * standing in for the GET requests that keep it from growing in production.
+ * consumeRedeliveredBatch measures a batch whose messages were all stored before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumerBenchmark {
+    public interface Fixture {
+        // Handle one SQS batch and drain the store again
+        Object consumeBatch();
+
+        // Handle an SQS batch this consumer already stored
+        Object consumeRedeliveredBatch();
+    }
+
+    // Messages per SQS batch, 10 is the SQS maximum for FIFO queues
+    @Param({"1", "10"})
+    public int batchSize;
+
+    // Ready poems kept per theme, 0 disables pre-assembly
+    @Param({"0", "10"})
+    public String poemBufferSize;
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        // Read once when PoemAssembler is loaded, which happens in the fixture; every trial runs in a fresh fork
+        System.setProperty("POEM_BUFFER_SIZE", poemBufferSize);
+        fixture = Fixtures.create(Fixture.class, "ConsumerFixture", batchSize);
+    }
+
+    @Benchmark
+    public Object consumeBatch() {
+        return fixture.consumeBatch();
+    }
+
+    @Benchmark
+    public Object consumeRedeliveredBatch() {
+        return fixture.consumeRedeliveredBatch();
+    }
+}
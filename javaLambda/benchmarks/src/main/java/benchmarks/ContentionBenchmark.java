@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the state shared by concurrent requests in one container: the sort key
+ * generator, the in-memory store and the coalescing SQS sender. Override the thread
+ * count with -t to see how each scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ContentionBenchmark {
+    public interface Fixture {
+        // Generate a key from the shared generator
+        Object nextSortKey();
+
+        // Store one sentence in the shared store and claim the oldest one
+        Object storeAndClaim();
+
+        // Send one message through the shared SQS sender, blocking until it is accepted
+        void sendMessage();
+    }
+
+    @State(Scope.Benchmark)
+    public static class SqsState {
+        // Time each SendMessageBatch call takes, 0 measures the sender on its own
+        @Param({"0", "5000"})
+        public long sqsLatencyMicros;
+
+        private Fixture fixture;
+
+        @Setup
+        public void setUp() {
+            fixture = Fixtures.create(Fixture.class, "ContentionFixture", sqsLatencyMicros);
+        }
+    }
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.create(Fixture.class, "ContentionFixture", 0L);
+    }
+
+    @Benchmark
+    public Object nextSortKey() {
+        return fixture.nextSortKey();
+    }
+
+    @Benchmark
+    public Object storeAndClaim() {
+        return fixture.storeAndClaim();
+    }
+
+    @Benchmark
+    public void sendMessage(SqsState state) {
+        state.fixture.sendMessage();
+    }
+}
@@ -0,0 +1,127 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the DynamoDB store against a local stand-in such as DynamoDB Local:
+ * batch writes, the transactional claim and the oldest-n read, as the number of theme
+ * shards grows. contendedClaim has 8 threads, each with its own store like separate
+ * containers, claim from one theme at once, and counts the claim transactions that lost
+ * a race and the claims that came back empty although a sentence had just been stored.
+ *
+ * Needs DYNAMODB_ENDPOINT, e.g. http://localhost:8000; the table is created if missing.
+ * A local stand-in has no per-partition throughput limit, so the shard counts show the
+ * cost of the scatter-gather read and the extra queries rather than the throughput gain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class DynamoDbBenchmark {
+    public interface Fixture {
+        // Store 25 sentences, one BatchWriteItem call per shard group
+        Object storeBatch();
+
+        // Store a poem's worth of sentences and claim them back in one transaction
+        Object storeAndClaim();
+
+        // Read the oldest sentences of a theme across all of its shards
+        Object readOldest();
+
+        // Store one sentence and claim one back from a theme other threads claim from too
+        Object storeAndClaimOne();
+
+        // How many claim transactions of storeAndClaimOne lost a race, and how many of its
+        // claims came back empty, since the fixture was created
+        long lostRaces();
+
+        long emptyClaims();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ClaimCounters {
+        public long lostRaces;
+        public long emptyClaims;
+
+        private Fixture fixture;
+        private long lostBefore;
+        private long emptyBefore;
+
+        // Takes the benchmark so its setup has configured the store first
+        @Setup
+        public void setUp(DynamoDbBenchmark benchmark) {
+            fixture = Fixtures.create(Fixture.class, "DynamoDbFixture");
+        }
+
+        @Setup(Level.Iteration)
+        public void startIteration() {
+            lostBefore = fixture.lostRaces();
+            emptyBefore = fixture.emptyClaims();
+            lostRaces = 0;
+            emptyClaims = 0;
+        }
+
+        private Object claim() {
+            Object claimed = fixture.storeAndClaimOne();
+            lostRaces = fixture.lostRaces() - lostBefore;
+            emptyClaims = fixture.emptyClaims() - emptyBefore;
+            return claimed;
+        }
+    }
+
+    // Partitions per theme
+    @Param({"1", "4", "16"})
+    public String themeShards;
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        if (System.getenv("DYNAMODB_ENDPOINT") == null) {
+            throw new IllegalStateException("Set DYNAMODB_ENDPOINT to a local DynamoDB to run this benchmark");
+        }
+        // Read once when SentenceDao is loaded, which happens in the fixture; every trial runs in a fresh fork
+        System.setProperty("THEME_SHARDS", themeShards);
+        System.setProperty("BOOTSTRAP_TABLE", "true");
+        fixture = Fixtures.create(Fixture.class, "DynamoDbFixture");
+    }
+
+    @Benchmark
+    public Object storeBatch() {
+        return fixture.storeBatch();
+    }
+
+    @Benchmark
+    public Object storeAndClaim() {
+        return fixture.storeAndClaim();
+    }
+
+    @Benchmark
+    public Object readOldest() {
+        return fixture.readOldest();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object contendedClaim(ClaimCounters counters) {
+        return counters.claim();
+    }
+}
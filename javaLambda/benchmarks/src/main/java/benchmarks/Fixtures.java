@@ -0,0 +1,35 @@
+package benchmarks;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * JMH refuses benchmark classes in the default package, and classes in a named package
+ * can't refer to the default-package Lambda classes. Each benchmark therefore declares
+ * a small Fixture interface, implemented by a default-package class that drives the
+ * Lambda code, and loads that class by name once per trial.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * Create a fixture
+     *
+     * @param type The fixture interface
+     * @param className The default-package class implementing it
+     * @param args The constructor arguments
+     * @return The fixture
+     */
+    static <T> T create(Class<T> type, String className, Object... args) {
+        try {
+            for (Constructor<?> constructor : Class.forName(className).getConstructors()) {
+                if (constructor.getParameterCount() == args.length) {
+                    return type.cast(constructor.newInstance(args));
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create fixture " + className, e);
+        }
+        throw new IllegalStateException("No constructor of " + className + " takes " + args.length + " arguments");
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The streaming SentenceJson codec against the Gson tree code it replaced, for each
+ * JSON step of a request. Run with -prof gc to compare allocations per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+    public interface Fixture {
+        // POST: parse and validate the body, then write the queue message
+        Object treePost();
+
+        Object streamingPost();
+
+        // Consumer: parse a queue message into a sentence
+        Object treeMessage();
+
+        Object streamingMessage();
+
+        // GET: write a 14-line poem response
+        Object treePoem();
+
+        Object streamingPoem();
+    }
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.create(Fixture.class, "JsonCodecFixture");
+    }
+
+    @Benchmark
+    public Object treePost() {
+        return fixture.treePost();
+    }
+
+    @Benchmark
+    public Object streamingPost() {
+        return fixture.streamingPost();
+    }
+
+    @Benchmark
+    public Object treeMessage() {
+        return fixture.treeMessage();
+    }
+
+    @Benchmark
+    public Object streamingMessage() {
+        return fixture.streamingMessage();
+    }
+
+    @Benchmark
+    public Object treePoem() {
+        return fixture.treePoem();
+    }
+
+    @Benchmark
+    public Object streamingPoem() {
+        return fixture.streamingPoem();
+    }
+}
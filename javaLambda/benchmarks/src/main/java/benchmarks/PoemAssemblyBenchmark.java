@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning sentences into a poem, on its own and as the full in-memory
+ * cycle of storing the lines, assembling the poem and claiming it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoemAssemblyBenchmark {
+    public interface Fixture {
+        // Build a poem from a list of sentences
+        Object fromSentences();
+
+        // Store the lines, assemble them into a poem and claim it
+        Object assembleAndClaim();
+    }
+
+    // Lines per poem, the minimum and maximum a poem can have
+    @Param({"3", "14"})
+    public int lines;
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.create(Fixture.class, "PoemAssemblyFixture", lines);
+    }
+
+    @Benchmark
+    public Object fromSentences() {
+        return fixture.fromSentences();
+    }
+
+    @Benchmark
+    public Object assembleAndClaim() {
+        return fixture.assembleAndClaim();
+    }
+}
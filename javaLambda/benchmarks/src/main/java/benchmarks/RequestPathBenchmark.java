@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of PostSentenceGetPoemHandler requests, with an in-memory store and a
+ * fake SQS client that return immediately, so only the handler's own work is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestPathBenchmark {
+    public interface Fixture {
+        // POST /sentence with a valid body
+        Object postSentence();
+
+        // GET /poem/{theme}, assembled on demand or taken from the poem buffer
+        Object getPoem();
+
+        // A request that matches no route
+        Object unknownRoute();
+
+        // Dispatch one path from a mix of routes, with the regex code the router replaced
+        Object regexDispatch();
+
+        // Dispatch one path from the same mix with the router
+        Object routerDispatch();
+
+        // Parse and validate a POST body
+        Object validateBody();
+
+        // Validate one theme from a mix of valid and invalid ones
+        Object validateTheme();
+    }
+
+    @State(Scope.Benchmark)
+    public static class GetState {
+        // Whether GET finds a pre-assembled poem, or falls back to assembling one
+        @Param({"false", "true"})
+        public boolean readyPoems;
+
+        private Fixture fixture;
+
+        @Setup
+        public void setUp() {
+            fixture = Fixtures.create(Fixture.class, "RequestPathFixture", readyPoems);
+        }
+    }
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.create(Fixture.class, "RequestPathFixture", false);
+    }
+
+    @Benchmark
+    public Object postSentence() {
+        return fixture.postSentence();
+    }
+
+    @Benchmark
+    public Object getPoem(GetState state) {
+        return state.fixture.getPoem();
+    }
+
+    @Benchmark
+    public Object unknownRoute() {
+        return fixture.unknownRoute();
+    }
+
+    @Benchmark
+    public Object regexDispatch() {
+        return fixture.regexDispatch();
+    }
+
+    @Benchmark
+    public Object routerDispatch() {
+        return fixture.routerDispatch();
+    }
+
+    @Benchmark
+    public Object validateBody() {
+        return fixture.validateBody();
+    }
+
+    @Benchmark
+    public Object validateTheme() {
+        return fixture.validateTheme();
+    }
+}
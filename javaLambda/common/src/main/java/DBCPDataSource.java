@@ -1,43 +1,42 @@
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import java.net.URI;
 
-public class DBCPDataSource {
-    private static final AmazonDynamoDB client;
-    private static final DynamoDB dynamoDB;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
 
+public class DBCPDataSource {
     // Get AWS region from environment variable or use a default
     private static final String AWS_REGION = System.getProperty("AWS_REGION", System.getenv("AWS_REGION") != null ? 
-                                              System.getenv("AWS_REGION") : Regions.US_WEST_2.getName());
+                                              System.getenv("AWS_REGION") : Region.US_WEST_2.id());
+    // Optional endpoint override, e.g. http://localhost:8000 for DynamoDB Local
+    private static final String DYNAMODB_ENDPOINT = System.getProperty("DYNAMODB_ENDPOINT", System.getenv("DYNAMODB_ENDPOINT"));
 
-    static {
-        // Build the AmazonDynamoDB client
-        client = AmazonDynamoDBClientBuilder.standard()
-                .withRegion(AWS_REGION)
-                .withCredentials(new DefaultAWSCredentialsProviderChain())
-                .build();
-                
-        // Create a DynamoDB object from the client
-        dynamoDB = new DynamoDB(client);
+    // The client is built on first use rather than at class load, so invocations
+    // that never touch DynamoDB don't pay for it during a cold start
+    private static class Holder {
+        private static final DynamoDbClient client = buildClient();
     }
 
-    /**
-     * Returns the DynamoDB client.
-     * 
-     * @return An AmazonDynamoDB client
-     */
-    public static AmazonDynamoDB getClient() {
-        return client;
+    private static DynamoDbClient buildClient() {
+        // The URLConnection HTTP client starts much faster than the Apache or Netty ones
+        DynamoDbClientBuilder builder = DynamoDbClient.builder()
+                .region(Region.of(AWS_REGION))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .httpClientBuilder(UrlConnectionHttpClient.builder());
+        if (DYNAMODB_ENDPOINT != null) {
+            builder.endpointOverride(URI.create(DYNAMODB_ENDPOINT));
+        }
+        return builder.build();
     }
-    
+
     /**
-     * Returns the DynamoDB document interface.
+     * Returns the DynamoDB client.
      * 
-     * @return A DynamoDB object for document operations
+     * @return A DynamoDbClient
      */
-    public static DynamoDB getDynamoDB() {
-        return dynamoDB;
+    public static DynamoDbClient getClient() {
+        return Holder.client;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * In-process sentence store: one FIFO queue of sentences and one of ready poems
+ * per theme.
+ * 
+ * Appending is O(1) and lock-free. Claiming the oldest n sentences is O(n) and
+ * holds the theme's queue lock, so concurrent claims take consecutive runs of
+ * sentences and never share one. assemblePoem holds the same lock while it
+ * puts back a short claim, so no other claimer sees part of it and the queue
+ * keeps its original order.
+ */
+public class InMemorySentenceStore implements SentenceStore {
+    // IDs passed to storeSentencesOnce are remembered up to this many
+    private static final int STORED_IDS_CAPACITY = 100_000;
+
+    private final Map<String, Deque<Sentence>> sentencesByTheme = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Poem>> poemsByTheme = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final RecentIds storedIds = new RecentIds(STORED_IDS_CAPACITY);
+    // Only the THEMES variable, since this engine runs without DynamoDB to reload them from
+    private final ThemeRegistry themes = new ThemeRegistry(ThemeTable.fromEnvironment(), null, 0);
+
+    @Override
+    public ThemeRegistry themes() {
+        return themes;
+    }
+
+    @Override
+    public String storeSentence(int author, String content, String theme, Context context) {
+        theme = validateTheme(theme);
+        sentencesOf(theme).offer(new Sentence(author, content, theme));
+        return Long.toString(sequence.incrementAndGet());
+    }
+
+    @Override
+    public List<String> storeSentences(Map<String, Sentence> sentences, Context context) {
+        for (Sentence sentence : sentences.values()) {
+            storeSentence(sentence.getAuthor(), sentence.getContent(), sentence.getTheme(), context);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<String> storeSentencesOnce(Map<String, Sentence> sentences, Context context) {
+        for (Map.Entry<String, Sentence> entry : sentences.entrySet()) {
+            if (storedIds.add(entry.getKey())) {
+                Sentence sentence = entry.getValue();
+                storeSentence(sentence.getAuthor(), sentence.getContent(), sentence.getTheme(), context);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Sentence> claimOldestSentencesByTheme(String theme, int n, Context context) {
+        Deque<Sentence> queue = sentencesOf(validateTheme(theme));
+        List<Sentence> claimed = new ArrayList<>(n);
+        synchronized (queue) {
+            Sentence sentence;
+            while (claimed.size() < n && (sentence = queue.poll()) != null) {
+                claimed.add(sentence);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public Poem assemblePoem(String theme, int n, Context context) {
+        theme = validateTheme(theme);
+        Deque<Sentence> queue = sentencesOf(theme);
+        List<Sentence> claimed;
+        synchronized (queue) {
+            claimed = claimOldestSentencesByTheme(theme, n, context);
+            if (claimed.size() < n) {
+                // Not enough for a full poem, put the sentences back at the head in their original order
+                for (int i = claimed.size() - 1; i >= 0; i--) {
+                    queue.offerFirst(claimed.get(i));
+                }
+                return null;
+            }
+        }
+
+        Poem poem = Poem.fromSentences(theme, claimed);
+        poemsOf(theme).offer(poem);
+        return poem;
+    }
+
+    @Override
+    public Poem claimPoem(String theme, Context context) {
+        return poemsOf(validateTheme(theme)).poll();
+    }
+
+    @Override
+    public int countPoems(String theme, Context context) {
+        return poemsOf(validateTheme(theme)).size();
+    }
+
+    private Deque<Sentence> sentencesOf(String theme) {
+        return sentencesByTheme.computeIfAbsent(theme, key -> new ConcurrentLinkedDeque<>());
+    }
+
+    private Queue<Poem> poemsOf(String theme) {
+        return poemsByTheme.computeIfAbsent(theme, key -> new ConcurrentLinkedQueue<>());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Fixed-size latency histogram with HdrHistogram-style log-linear buckets.
+ *
+ * Values below 64 get a bucket each; above that, every power of two is split into 32
+ * buckets, so a bucket is never wider than about 3% of its values. Recording is an
+ * array increment and never allocates. Not thread-safe.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int LINEAR_LIMIT = 1 << (SUB_BUCKET_BITS + 1);
+    // About 19 hours in microseconds; larger values are counted in the last bucket
+    private static final long MAX_VALUE = (1L << 36) - 1;
+
+    private final long[] counts = new long[indexOf(MAX_VALUE) + 1];
+    private long totalCount;
+    private int minIndex = Integer.MAX_VALUE;
+    private int maxIndex = -1;
+
+    /**
+     * Record a value
+     *
+     * @param value The value, negative values count as 0
+     */
+    public void record(long value) {
+        int index = indexOf(Math.max(0, Math.min(value, MAX_VALUE)));
+        counts[index]++;
+        totalCount++;
+        minIndex = Math.min(minIndex, index);
+        maxIndex = Math.max(maxIndex, index);
+    }
+
+    /**
+     * @return The number of values recorded
+     */
+    public long count() {
+        return totalCount;
+    }
+
+    /**
+     * Forget every recorded value
+     */
+    public void reset() {
+        for (int i = minIndex; i <= maxIndex; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        minIndex = Integer.MAX_VALUE;
+        maxIndex = -1;
+    }
+
+    /**
+     * Find the next bucket holding values, to iterate over the recorded values with
+     * {@code for (int i = h.nextBucket(-1); i >= 0; i = h.nextBucket(i))}
+     *
+     * @param index The bucket to start after, -1 for the first
+     * @return The index of the next non-empty bucket, or -1 if there is none
+     */
+    public int nextBucket(int index) {
+        for (int i = Math.max(index + 1, minIndex); i <= maxIndex; i++) {
+            if (counts[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of values in a bucket
+     */
+    public long countAt(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return The midpoint of the values a bucket holds
+     */
+    public static double valueAt(int index) {
+        return (lowestValueAt(index) + highestValueAt(index)) / 2.0;
+    }
+
+    /**
+     * Get a percentile of the recorded values
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The highest value of the bucket holding the percentile, or 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = nextBucket(-1); i >= 0; i = nextBucket(i)) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+}
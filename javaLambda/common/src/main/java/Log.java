@@ -0,0 +1,78 @@
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+
+/**
+ * Log-level switch for the Lambda logger.
+ *
+ * The level comes from the LOG_LEVEL property or environment variable, falling back to
+ * Lambda's own AWS_LAMBDA_LOG_LEVEL, and defaults to INFO. Per-item and per-request
+ * messages are logged at DEBUG, so they stay off the hot path unless asked for; wrap
+ * any message that is costly to build in isDebugEnabled().
+ */
+public final class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    public static final Level LEVEL = parseLevel(System.getProperty("LOG_LEVEL", System.getenv("LOG_LEVEL") != null ?
+                                                 System.getenv("LOG_LEVEL") : System.getenv("AWS_LAMBDA_LOG_LEVEL")));
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String level) {
+        if (level == null) {
+            return Level.INFO;
+        }
+        switch (level.trim().toUpperCase()) {
+            case "ERROR":
+            case "FATAL":
+                return Level.ERROR;
+            case "WARN":
+                return Level.WARN;
+            case "DEBUG":
+            case "TRACE":
+                return Level.DEBUG;
+            default:
+                return Level.INFO;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) <= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return LEVEL == Level.DEBUG;
+    }
+
+    public static void error(Context context, String message) {
+        log(Level.ERROR, context, message);
+    }
+
+    public static void warn(Context context, String message) {
+        log(Level.WARN, context, message);
+    }
+
+    /**
+     * Log a warning from outside a request, e.g. from a background thread, through the
+     * runtime's logger
+     */
+    public static void warn(String message) {
+        if (isEnabled(Level.WARN)) {
+            LambdaRuntime.getLogger().log(message);
+        }
+    }
+
+    public static void info(Context context, String message) {
+        log(Level.INFO, context, message);
+    }
+
+    public static void debug(Context context, String message) {
+        log(Level.DEBUG, context, message);
+    }
+
+    private static void log(Level level, Context context, String message) {
+        if (context != null && isEnabled(level)) {
+            context.getLogger().log(message);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Phase timings of one invocation, emitted as a single CloudWatch Embedded Metric
+ * Format (EMF) log line when the invocation ends.
+ *
+ * Each phase is recorded into a LatencyHistogram in microseconds, and the EMF line
+ * carries every histogram as Values/Counts arrays in milliseconds, from which CloudWatch
+ * computes percentiles across invocations. A handler calls start() when an invocation
+ * begins and emit() when it ends; the code in between, the stores included, records
+ * through current(). Instances are confined to their thread and reused by the next
+ * invocation on it, so recording doesn't allocate.
+ *
+ * Metrics go to the namespace in METRICS_NAMESPACE (default "PoemInABottle"), with the
+ * handler name as the Function dimension; set METRICS_ENABLED to false to stop emitting them.
+ */
+public final class Metrics {
+    public enum Phase {
+        PARSE("Parse"),
+        VALIDATE("Validate"),
+        SERIALIZE("Serialize"),
+        SQS_SEND("SqsSend"),
+        QUERY("Query"),
+        DELETE("Delete"),
+        STORE("Store"),
+        ASSEMBLE("Assemble");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    public static final String NAMESPACE = System.getProperty("METRICS_NAMESPACE", System.getenv("METRICS_NAMESPACE") != null ?
+                                           System.getenv("METRICS_NAMESPACE") : "PoemInABottle");
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("METRICS_ENABLED",
+                                          System.getenv("METRICS_ENABLED")));
+    // EMF accepts at most 100 values per metric
+    private static final int MAX_VALUES = 100;
+    private static final Phase[] PHASES = Phase.values();
+    private static final ThreadLocal<Metrics> CURRENT = ThreadLocal.withInitial(Metrics::new);
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+    private String function = "unknown";
+
+    private Metrics() {
+    }
+
+    /**
+     * Start recording a new invocation on this thread, discarding anything recorded before
+     *
+     * @param function The handler name, used as the Function dimension
+     * @return The metrics of the invocation
+     */
+    public static Metrics start(String function) {
+        Metrics metrics = CURRENT.get();
+        metrics.function = function;
+        for (LatencyHistogram histogram : metrics.histograms) {
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The metrics of the invocation running on this thread
+     */
+    public static Metrics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Record the duration of a phase that started at startNanos
+     *
+     * @param phase The phase
+     * @param startNanos The System.nanoTime() when the phase started
+     */
+    public void record(Phase phase, long startNanos) {
+        recordMicros(phase, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void recordMicros(Phase phase, long micros) {
+        LatencyHistogram histogram = histograms[phase.ordinal()];
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms[phase.ordinal()] = histogram;
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * @return The histogram of a phase, or null if nothing was recorded for it yet
+     */
+    public LatencyHistogram histogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * Log the recorded phases as one EMF line, unless nothing was recorded or metrics are disabled
+     */
+    public void emit(Context context) {
+        if (!ENABLED || context == null) {
+            return;
+        }
+        String emf = toEmf(System.currentTimeMillis());
+        if (emf != null) {
+            context.getLogger().log(emf);
+        }
+    }
+
+    /**
+     * Format the recorded phases as an EMF document
+     *
+     * @param timestamp The metric timestamp in epoch milliseconds
+     * @return The EMF JSON, or null if nothing was recorded
+     */
+    public String toEmf(long timestamp) {
+        boolean recorded = false;
+        for (Phase phase : PHASES) {
+            recorded |= hasValues(phase);
+        }
+        if (!recorded) {
+            return null;
+        }
+
+        StringWriter out = new StringWriter(512);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("_aws").beginObject();
+            writer.name("Timestamp").value(timestamp);
+            writer.name("CloudWatchMetrics").beginArray().beginObject();
+            writer.name("Namespace").value(NAMESPACE);
+            writer.name("Dimensions").beginArray().beginArray().value("Function").endArray().endArray();
+            writer.name("Metrics").beginArray();
+            for (Phase phase : PHASES) {
+                if (hasValues(phase)) {
+                    writer.beginObject();
+                    writer.name("Name").value(phase.metricName);
+                    writer.name("Unit").value("Milliseconds");
+                    writer.endObject();
+                }
+            }
+            writer.endArray();
+            writer.endObject().endArray();
+            writer.endObject();
+
+            writer.name("Function").value(function);
+            for (Phase phase : PHASES) {
+                if (hasValues(phase)) {
+                    writeHistogram(writer.name(phase.metricName), histograms[phase.ordinal()]);
+                }
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private boolean hasValues(Phase phase) {
+        LatencyHistogram histogram = histograms[phase.ordinal()];
+        return histogram != null && histogram.count() > 0;
+    }
+
+    private static void writeHistogram(JsonWriter writer, LatencyHistogram histogram) throws IOException {
+        writer.beginObject();
+        writer.name("Values").beginArray();
+        int values = 0;
+        int last = -1;
+        for (int i = histogram.nextBucket(-1); i >= 0 && values < MAX_VALUES; i = histogram.nextBucket(i)) {
+            writer.value(LatencyHistogram.valueAt(i) / 1000.0);
+            values++;
+            last = i;
+        }
+        writer.endArray();
+
+        writer.name("Counts").beginArray();
+        for (int i = histogram.nextBucket(-1); i >= 0 && i <= last; i = histogram.nextBucket(i)) {
+            long count = histogram.countAt(i);
+            if (i == last) {
+                // Buckets beyond the EMF limit are folded into the last value
+                for (int j = histogram.nextBucket(i); j >= 0; j = histogram.nextBucket(j)) {
+                    count += histogram.countAt(j);
+                }
+            }
+            writer.value(count);
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+}
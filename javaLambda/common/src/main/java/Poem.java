@@ -0,0 +1,57 @@
+import java.util.Arrays;
+import java.util.List;
+
+public class Poem {
+    final private String theme;
+    final private String contents;
+    final private int[] authors;
+
+    // Constructor with all fields
+    public Poem(String theme, String contents, int[] authors) {
+        this.theme = theme;
+        this.contents = contents;
+        this.authors = authors;
+    }
+
+    /**
+     * Assemble a poem from sentences, one line per sentence in the given order
+     * 
+     * @param theme The poem theme
+     * @param sentences The sentences making up the poem
+     * @return The assembled poem
+     */
+    public static Poem fromSentences(String theme, List<Sentence> sentences) {
+        int[] authors = new int[sentences.size()];
+        StringBuilder contentBuilder = new StringBuilder();
+        
+        for (int i = 0; i < sentences.size(); i++) {
+            Sentence sentence = sentences.get(i);
+            authors[i] = sentence.getAuthor();
+            contentBuilder.append(sentence.getContent()).append("\n");
+        }
+        
+        return new Poem(theme, contentBuilder.toString().trim(), authors);
+    }
+
+    // Getters for all fields
+    public String getTheme() {
+        return theme;
+    }
+
+    public String getContents() {
+        return contents;
+    }
+
+    public int[] getAuthors() {
+        return authors;
+    }
+
+    @Override
+    public String toString() {
+        return "Poem{" +
+                "theme='" + theme + '\'' +
+                ", contents='" + contents + '\'' +
+                ", authors=" + Arrays.toString(authors) +
+                '}';
+    }
+}
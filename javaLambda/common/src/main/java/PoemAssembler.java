@@ -0,0 +1,58 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * Packs stored sentences into finished poems ahead of time, so that a GET only has
+ * to claim one ready poem instead of assembling it. Each theme keeps a bounded buffer
+ * of ready poems; sentences beyond what fills the buffer stay available to GETs that
+ * find the buffer empty.
+ */
+public class PoemAssembler {
+    // A poem has between 3 and 14 lines
+    public static final int MIN_LINES = 3;
+    public static final int MAX_LINES = 14;
+    // Number of ready poems to keep per theme, 0 disables pre-assembly
+    public static final int POEM_BUFFER_SIZE = Math.max(0, Integer.parseInt(System.getProperty("POEM_BUFFER_SIZE",
+                                                  System.getenv("POEM_BUFFER_SIZE") != null ? System.getenv("POEM_BUFFER_SIZE") : "10")));
+
+    private final SentenceStore sentenceStore;
+
+    public PoemAssembler(SentenceStore sentenceStore) {
+        this.sentenceStore = sentenceStore;
+    }
+
+    /**
+     * Draw a random poem length
+     * 
+     * @return A number of lines between MIN_LINES and MAX_LINES inclusive
+     */
+    public static int randomLength() {
+        return MIN_LINES + ThreadLocalRandom.current().nextInt(MAX_LINES - MIN_LINES + 1);
+    }
+
+    /**
+     * Assemble poems for a theme until its buffer is full or there are not enough
+     * sentences left for the next poem
+     * 
+     * @param theme The theme to refill
+     * @return The number of poems assembled
+     */
+    public int refill(String theme, Context context) {
+        if (POEM_BUFFER_SIZE == 0) {
+            return 0;
+        }
+        
+        int assembled = 0;
+        int ready = sentenceStore.countPoems(theme, context);
+        while (ready + assembled < POEM_BUFFER_SIZE
+               && sentenceStore.assemblePoem(theme, randomLength(), context) != null) {
+            assembled++;
+        }
+        
+        if (assembled > 0 && Log.isDebugEnabled()) {
+            Log.debug(context, "Assembled " + assembled + " poems for theme: " + theme);
+        }
+        return assembled;
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded set of recently seen IDs. When full, the least recently seen ID is
+ * forgotten first. Thread-safe.
+ */
+public final class RecentIds {
+    private final Map<String, Boolean> ids;
+
+    /**
+     * @param capacity The number of IDs to remember
+     */
+    public RecentIds(int capacity) {
+        // Access-ordered, so a lookup counts as a use
+        this.ids = new LinkedHashMap<String, Boolean>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return Whether the ID was seen recently
+     */
+    public synchronized boolean contains(String id) {
+        return ids.get(id) != null;
+    }
+
+    /**
+     * Remember an ID
+     *
+     * @return Whether the ID was not already remembered
+     */
+    public synchronized boolean add(String id) {
+        return ids.put(id, Boolean.TRUE) == null;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+}
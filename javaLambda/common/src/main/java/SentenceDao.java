@@ -1,175 +1,619 @@
-import java.time.Instant;
+import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
-import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.ItemCollection;
-import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
-import com.amazonaws.services.dynamodbv2.document.Table;
-import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
-import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
-import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
-import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
-import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
-import com.amazonaws.services.dynamodbv2.model.KeyType;
-import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
-import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.lambda.runtime.Context;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.Select;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
-public class SentenceDao {
+public class SentenceDao implements SentenceStore {
     public static final String TABLE_NAME = "sentences";
-    public static final List<String> VALID_THEMES = Arrays.asList("random", "love", "death", "nature", "beauty");
+    // BatchWriteItem accepts at most 25 put/delete requests per call
+    public static final int MAX_BATCH_SIZE = 25;
+    private static final int MAX_BATCH_RETRIES = 5;
+    private static final long BATCH_BACKOFF_BASE_MS = 50;
+    // TransactWriteItems accepts at most 100 actions per call
+    public static final int MAX_TRANSACTION_SIZE = 100;
+    private static final int MAX_CLAIM_ATTEMPTS = 3;
+    // A claim reads this many claims' worth of the oldest sentences and takes a random one of them
+    private static final int CLAIM_SPREAD = 4;
+    // Ready poems live in the same table, under "poem#<theme>" partitions sharded like the sentences
+    private static final String POEM_PARTITION_PREFIX = "poem#";
+    // How many of a shard's oldest poems a claim picks from at random
+    private static final int POEM_CLAIM_WINDOW = 8;
+    // IDs stored by storeSentencesOnce are marked by an item under a "msg#<id>" partition,
+    // deleted by the table's TTL on this attribute once nothing can redeliver them
+    private static final String STORED_ID_PARTITION_PREFIX = "msg#";
+    public static final String EXPIRES_AT = "expiresAt";
+    // Should be at least the message retention period of the queue (default 4 days)
+    private static final long STORED_ID_TTL_SECONDS = TimeUnit.DAYS.toSeconds(Long.parseLong(System.getProperty("STORED_ID_TTL_DAYS",
+                                                      System.getenv("STORED_ID_TTL_DAYS") != null ? System.getenv("STORED_ID_TTL_DAYS") : "4")));
+    // Number of partitions each theme's writes are spread over, 1 disables sharding
+    public static final int THEME_SHARDS = Math.max(1, Integer.parseInt(System.getProperty("THEME_SHARDS",
+                                              System.getenv("THEME_SHARDS") != null ? System.getenv("THEME_SHARDS") : "1")));
+    // Fans out independent DynamoDB calls (shard queries, batch writes) so they run in parallel
+    private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "dynamodb-io");
+        thread.setDaemon(true);
+        return thread;
+    });
     
-    private final AmazonDynamoDB client;
-    private final DynamoDB dynamoDB;
-    private final Table sentencesTable;
+    // Table provisioning is a deploy-time step (see TableProvisioner), only bootstrap the table when asked to
+    private static final boolean BOOTSTRAP_TABLE = Boolean.parseBoolean(System.getProperty("BOOTSTRAP_TABLE",
+                                                      System.getenv("BOOTSTRAP_TABLE")));
+    
+    private final SortKeyGenerator keyGenerator = new SortKeyGenerator();
+    private final ThemeRegistry themes = ThemeRegistry.fromEnvironment();
 
     public SentenceDao() {
-        this.client = DBCPDataSource.getClient();
-        this.dynamoDB = DBCPDataSource.getDynamoDB();
+        if (BOOTSTRAP_TABLE) {
+            TableProvisioner.ensureTableExists(DBCPDataSource.getClient());
+        }
+        // Reads the metadata item if THEME_REFRESH_SECONDS is set, so requests start with the current themes
+        themes.load();
+    }
+    
+    @Override
+    public ThemeRegistry themes() {
+        return themes;
+    }
+    
+    /**
+     * Build the DynamoDB client ahead of the first request, e.g. before a
+     * SnapStart snapshot is taken. No request is sent.
+     */
+    @Override
+    public void prime() {
+        DBCPDataSource.getClient();
+    }
+    
+    /**
+     * Store a sentence in DynamoDB
+     * 
+     * @param author The author ID
+     * @param content The sentence content
+     * @param theme The sentence theme
+     * @return The range key the sentence was stored under
+     */
+    @Override
+    public String storeSentence(int author, String content, String theme, Context context) {
+        theme = validateTheme(theme);
+        String timestamp = keyGenerator.nextKey();
         
-        // Create table if it doesn't exist
-        ensureTableExists();
-        this.sentencesTable = dynamoDB.getTable(TABLE_NAME);
+        DBCPDataSource.getClient().putItem(PutItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .item(toItem(shardOf(theme), timestamp, author, content))
+            .build());
+        if (Log.isDebugEnabled()) {
+            Log.debug(context, "Successfully stored sentence with theme: " + theme);
+        }
+        
+        return timestamp;
     }
     
-    private void ensureTableExists() {
-        try {
-            client.describeTable(TABLE_NAME);
-            // Table exists, no need to create
-        } catch (ResourceNotFoundException e) {
-            // Table doesn't exist, create it
-            CreateTableRequest createTableRequest = new CreateTableRequest()
-                .withTableName(TABLE_NAME)
-                .withKeySchema(
-                    new KeySchemaElement("theme", KeyType.HASH),  // Partition key
-                    new KeySchemaElement("timestamp", KeyType.RANGE)  // Sort key
-                )
-                .withAttributeDefinitions(
-                    new AttributeDefinition("theme", "S"),
-                    new AttributeDefinition("timestamp", "N")
-                )
-                .withProvisionedThroughput(new ProvisionedThroughput(5L, 5L));
+    /**
+     * Store a batch of sentences in DynamoDB with BatchWriteItem, 25 items per call,
+     * sending the calls in parallel. Unprocessed items are retried with exponential
+     * backoff; whatever is still unprocessed after the last retry is reported back
+     * as failed.
+     * 
+     * @param sentences The sentences to store, keyed by a caller-chosen ID (e.g. the SQS message ID)
+     * @return The IDs of the sentences that could not be stored
+     */
+    @Override
+    public List<String> storeSentences(Map<String, Sentence> sentences, Context context) {
+        List<List<WriteRequest>> batches = new ArrayList<>();
+        List<Map<String, String>> batchIds = new ArrayList<>();
+        
+        for (Map.Entry<String, Sentence> entry : sentences.entrySet()) {
+            if (batches.isEmpty() || batches.get(batches.size() - 1).size() == MAX_BATCH_SIZE) {
+                batches.add(new ArrayList<>(MAX_BATCH_SIZE));
+                batchIds.add(new HashMap<>());
+            }
             
-            client.createTable(createTableRequest);
+            Sentence sentence = entry.getValue();
+            String theme = shardOf(validateTheme(sentence.getTheme()));
+            String timestamp = keyGenerator.nextKey();
             
-            // Wait for table to be active
+            batches.get(batches.size() - 1).add(WriteRequest.builder()
+                .putRequest(PutRequest.builder()
+                    .item(toItem(theme, timestamp, sentence.getAuthor(), sentence.getContent()))
+                    .build())
+                .build());
+            batchIds.get(batchIds.size() - 1).put(theme + "#" + timestamp, entry.getKey());
+        }
+        
+        // Send every batch at once instead of one after the other
+        List<Future<List<String>>> futures = new ArrayList<>(batches.size());
+        for (int i = 0; i < batches.size(); i++) {
+            List<WriteRequest> writes = batches.get(i);
+            Map<String, String> idsByKey = batchIds.get(i);
+            futures.add(IO_EXECUTOR.submit(() -> writeBatch(writes, idsByKey, context)));
+        }
+        
+        List<String> failedIds = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
             try {
-                System.out.println("Waiting for table to be created...");
-                Table table = dynamoDB.getTable(TABLE_NAME);
-                table.waitForActive();
-                System.out.println("Table created successfully!");
-            } catch (InterruptedException ex) {
+                failedIds.addAll(futures.get(i).get());
+            } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                System.err.println("Table creation was interrupted: " + ex.getMessage());
+                failedIds.addAll(batchIds.get(i).values());
+            } catch (ExecutionException e) {
+                failedIds.addAll(batchIds.get(i).values());
             }
         }
+        if (Log.isDebugEnabled()) {
+            Log.debug(context, "Stored " + (sentences.size() - failedIds.size()) + " of "
+                               + sentences.size() + " sentences");
+        }
+        
+        return failedIds;
     }
     
     /**
-     * Store a sentence in DynamoDB
+     * Write a single batch of at most 25 put requests, retrying unprocessed items
      * 
-     * @param author The author ID
-     * @param content The sentence content
-     * @param theme The sentence theme
-     * @return The timestamp when the sentence was stored
+     * @param writes The put requests to send
+     * @param idsByKey Caller IDs indexed by "theme#timestamp"
+     * @return The IDs of the items that were not written
      */
-    public long storeSentence(int author, String content, String theme, Context context) {
-        theme = validateTheme(theme);
-        long timestamp = Instant.now().getEpochSecond();
+    private List<String> writeBatch(List<WriteRequest> writes, Map<String, String> idsByKey, Context context) {
+        Map<String, List<WriteRequest>> pending = Collections.singletonMap(TABLE_NAME, writes);
+        
+        try {
+            for (int attempt = 0; ; attempt++) {
+                BatchWriteItemResponse response = DBCPDataSource.getClient().batchWriteItem(
+                    BatchWriteItemRequest.builder().requestItems(pending).build());
+                pending = response.unprocessedItems();
+                if (pending.getOrDefault(TABLE_NAME, Collections.emptyList()).isEmpty()) {
+                    return Collections.emptyList();
+                }
+                if (attempt == MAX_BATCH_RETRIES) {
+                    break;
+                }
+                // Exponential backoff with full jitter
+                Thread.sleep(1 + ThreadLocalRandom.current().nextLong(BATCH_BACKOFF_BASE_MS << attempt));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.error(context, "Failed to write batch: " + e.getMessage());
+            return new ArrayList<>(idsByKey.values());
+        }
         
-        Item item = new Item()
-            .withPrimaryKey("theme", theme, "timestamp", timestamp)
-            .withInt("author", author)
-            .withString("content", content);
+        List<String> failedIds = new ArrayList<>();
+        for (WriteRequest write : pending.getOrDefault(TABLE_NAME, Collections.emptyList())) {
+            Map<String, AttributeValue> item = write.putRequest().item();
+            failedIds.add(idsByKey.get(item.get("theme").s() + "#" + item.get("timestamp").n()));
+        }
+        return failedIds;
+    }
+    
+    /**
+     * Store a batch of sentences at most once per ID. Each sentence is written in a
+     * transaction together with a marker item for its ID, conditional on the marker not
+     * existing yet, so a sentence whose ID was stored before is rejected by DynamoDB
+     * even after the sentence itself has been claimed. Up to 50 sentences go into one
+     * transaction, sent in parallel like storeSentences.
+     * 
+     * @param sentences The sentences to store, keyed by an ID unique to each sentence (e.g. the SQS message ID)
+     * @return The IDs of the sentences that could not be stored
+     */
+    @Override
+    public List<String> storeSentencesOnce(Map<String, Sentence> sentences, Context context) {
+        // Each sentence takes two actions of a transaction, its marker and itself
+        int perTransaction = MAX_TRANSACTION_SIZE / 2;
+        List<Map<String, Sentence>> chunks = new ArrayList<>();
+        for (Map.Entry<String, Sentence> entry : sentences.entrySet()) {
+            if (chunks.isEmpty() || chunks.get(chunks.size() - 1).size() == perTransaction) {
+                chunks.add(new LinkedHashMap<>());
+            }
+            chunks.get(chunks.size() - 1).put(entry.getKey(), entry.getValue());
+        }
         
-        sentencesTable.putItem(item);
-        if (context != null) {
-            context.getLogger().log("Successfully stored sentence with theme: " + theme);
+        List<Future<List<String>>> futures = new ArrayList<>(chunks.size());
+        for (Map<String, Sentence> chunk : chunks) {
+            futures.add(IO_EXECUTOR.submit(() -> writeOnce(chunk, context)));
         }
         
-        return timestamp;
+        List<String> failedIds = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                failedIds.addAll(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedIds.addAll(chunks.get(i).keySet());
+            } catch (ExecutionException e) {
+                failedIds.addAll(chunks.get(i).keySet());
+            }
+        }
+        if (Log.isDebugEnabled()) {
+            Log.debug(context, "Stored " + (sentences.size() - failedIds.size()) + " of "
+                               + sentences.size() + " sentences once");
+        }
+        
+        return failedIds;
     }
     
     /**
-     * Get the oldest n sentences for a specific theme
+     * Write one transaction of sentences and their ID markers. When DynamoDB cancels
+     * the transaction, the sentences whose marker already exists are dropped as
+     * duplicates and the rest are sent again; a cancellation for any other reason,
+     * such as a conflicting transaction, is retried with exponential backoff.
+     * 
+     * @return The IDs of the sentences that were not written
+     */
+    private List<String> writeOnce(Map<String, Sentence> sentences, Context context) {
+        Map<String, Sentence> pending = new LinkedHashMap<>(sentences);
+        String expiresAt = Long.toString(System.currentTimeMillis() / 1000 + STORED_ID_TTL_SECONDS);
+        
+        try {
+            for (int attempt = 0; !pending.isEmpty(); attempt++) {
+                List<String> ids = new ArrayList<>(pending.keySet());
+                List<TransactWriteItem> writes = new ArrayList<>(2 * ids.size());
+                for (String id : ids) {
+                    Sentence sentence = pending.get(id);
+                    Map<String, AttributeValue> marker = new HashMap<>();
+                    marker.put("theme", AttributeValue.builder().s(STORED_ID_PARTITION_PREFIX + id).build());
+                    marker.put("timestamp", AttributeValue.builder().n("0").build());
+                    marker.put(EXPIRES_AT, AttributeValue.builder().n(expiresAt).build());
+                    writes.add(TransactWriteItem.builder().put(Put.builder()
+                        .tableName(TABLE_NAME)
+                        .item(marker)
+                        .conditionExpression("attribute_not_exists(#ts)")
+                        .expressionAttributeNames(Collections.singletonMap("#ts", "timestamp"))
+                        .build()).build());
+                    writes.add(TransactWriteItem.builder().put(Put.builder()
+                        .tableName(TABLE_NAME)
+                        .item(toItem(shardOf(validateTheme(sentence.getTheme())), keyGenerator.nextKey(),
+                                     sentence.getAuthor(), sentence.getContent()))
+                        .build()).build());
+                }
+                
+                try {
+                    DBCPDataSource.getClient().transactWriteItems(TransactWriteItemsRequest.builder().transactItems(writes).build());
+                    return Collections.emptyList();
+                } catch (TransactionCanceledException e) {
+                    boolean duplicates = false;
+                    List<CancellationReason> reasons = e.hasCancellationReasons() ? e.cancellationReasons() : Collections.emptyList();
+                    for (int i = 0; i < ids.size() && 2 * i < reasons.size(); i++) {
+                        if ("ConditionalCheckFailed".equals(reasons.get(2 * i).code())) {
+                            // Stored by an earlier delivery of the same message
+                            pending.remove(ids.get(i));
+                            duplicates = true;
+                            Log.debug(context, "Skipped already stored sentence " + ids.get(i));
+                        }
+                    }
+                    if (!duplicates) {
+                        if (attempt == MAX_BATCH_RETRIES) {
+                            break;
+                        }
+                        Thread.sleep(1 + ThreadLocalRandom.current().nextLong(BATCH_BACKOFF_BASE_MS << attempt));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.error(context, "Failed to write transaction: " + e.getMessage());
+        }
+        
+        return new ArrayList<>(pending.keySet());
+    }
+    
+    private static Map<String, AttributeValue> toItem(String partition, String timestamp, int author, String content) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("theme", AttributeValue.builder().s(partition).build());
+        item.put("timestamp", AttributeValue.builder().n(timestamp).build());
+        item.put("author", AttributeValue.builder().n(Integer.toString(author)).build());
+        item.put("content", AttributeValue.builder().s(content).build());
+        return item;
+    }
+    
+    /**
+     * Get the oldest n sentences for a specific theme. Rows written with legacy
+     * epoch-second keys sort before every generated key, so they are returned first
+     * and drain naturally; use {@link SortKeyGenerator#toEpochMillis} to read the
+     * write time of either kind of key.
      * 
      * @param theme The theme to query
      * @param n The number of sentences to retrieve
-     * @return List of DynamoDB Items representing sentences
+     * @return List of DynamoDB items representing sentences
      */
-    public List<Item> getOldestSentencesByTheme(String theme, int n, Context context) {
+    public List<Map<String, AttributeValue>> getOldestSentencesByTheme(String theme, int n, Context context) {
         theme = validateTheme(theme);
+        List<String> partitions = partitionsOf(theme);
         
-        QuerySpec querySpec = new QuerySpec()
-            .withKeyConditionExpression("theme = :theme")
-            .withValueMap(new ValueMap().withString(":theme", theme))
-            .withScanIndexForward(true) // Ascending order by timestamp (oldest first)
-            .withMaxResultSize(n);
-        
-        List<Item> items = new ArrayList<>();
-        try {
-            ItemCollection<QueryOutcome> outcome = sentencesTable.query(querySpec);
-            outcome.forEach(items::add);
-            if (context != null) {
-                context.getLogger().log("Retrieved " + items.size() + " sentences for theme: " + theme);
+        // Timed here rather than per shard, since the shards are queried on other threads
+        long start = System.nanoTime();
+        List<Map<String, AttributeValue>> items;
+        if (partitions.size() == 1) {
+            items = queryOldest(partitions.get(0), n, context);
+        } else {
+            // Scatter the query over every shard, then merge the per-shard results by age
+            List<Future<List<Map<String, AttributeValue>>>> futures = new ArrayList<>(partitions.size());
+            for (String partition : partitions) {
+                futures.add(IO_EXECUTOR.submit(() -> queryOldest(partition, n, context)));
             }
-        } catch (Exception e) {
-            if (context != null) {
-                context.getLogger().log("Error querying sentences: " + e.getMessage());
+            items = new ArrayList<>();
+            for (Future<List<Map<String, AttributeValue>>> future : futures) {
+                try {
+                    items.addAll(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Log.error(context, "Error querying shard: " + e.getMessage());
+                }
+            }
+            items.sort(Comparator.comparing(item -> new BigDecimal(item.get("timestamp").n())));
+            if (items.size() > n) {
+                items = new ArrayList<>(items.subList(0, n));
             }
         }
         
+        Metrics.current().record(Metrics.Phase.QUERY, start);
+        
+        if (Log.isDebugEnabled()) {
+            Log.debug(context, "Retrieved " + items.size() + " sentences for theme: " + theme);
+        }
         return items;
     }
     
     /**
-     * Delete a batch of sentences from DynamoDB
+     * Query the oldest n sentences of a single partition
      * 
-     * @param items List of Items to delete
-     * @return true if all deletions succeeded, false otherwise
+     * @param partition The partition key value, either a theme or a theme shard
+     * @param n The number of sentences to retrieve
+     * @return List of DynamoDB items, oldest first
      */
-    public boolean deleteSentences(List<Item> items, Context context) {
-        boolean allSuccessful = true;
+    private List<Map<String, AttributeValue>> queryOldest(String partition, int n, Context context) {
+        QueryRequest request = QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .keyConditionExpression("theme = :theme")
+            .expressionAttributeValues(Collections.singletonMap(":theme", AttributeValue.builder().s(partition).build()))
+            .scanIndexForward(true) // Ascending order by timestamp (oldest first)
+            .consistentRead(true) // Don't hand out sentences that were already claimed
+            .limit(n)
+            .build();
         
-        for (Item item : items) {
+        try {
+            return new ArrayList<>(DBCPDataSource.getClient().query(request).items());
+        } catch (Exception e) {
+            Log.error(context, "Error querying sentences: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Pick the partition a new sentence of the given theme is written to
+     * 
+     * @param theme A validated theme, or the "poem#<theme>" partition of its ready poems
+     * @return The theme itself when sharding is off, otherwise a random "theme#i" shard
+     */
+    private String shardOf(String theme) {
+        if (THEME_SHARDS <= 1) {
+            return theme;
+        }
+        return theme + "#" + ThreadLocalRandom.current().nextInt(THEME_SHARDS);
+    }
+    
+    /**
+     * List every partition that may hold sentences of the given theme
+     * 
+     * @param theme A validated theme, or the "poem#<theme>" partition of its ready poems
+     * @return The shards of the theme, plus the unsharded partition written before sharding was enabled
+     */
+    private List<String> partitionsOf(String theme) {
+        List<String> partitions = new ArrayList<>(THEME_SHARDS + 1);
+        partitions.add(theme);
+        if (THEME_SHARDS > 1) {
+            for (int i = 0; i < THEME_SHARDS; i++) {
+                partitions.add(theme + "#" + i);
+            }
+        }
+        return partitions;
+    }
+    
+    /**
+     * Atomically claim n of the oldest sentences for a specific theme. The sentences are
+     * removed in a single transaction whose deletes are conditional on the items still
+     * existing, so a sentence claimed by a concurrent request makes the whole transaction
+     * fail and the claim is retried against a fresh query. Each sentence therefore ends
+     * up in exactly one poem.
+     * 
+     * Concurrent requests would all read the same oldest n sentences and only one of
+     * their transactions could commit, so each claim takes a random block of n out of
+     * the oldest few blocks instead, and claims half as many after losing a race.
+     * 
+     * @param theme The theme to claim from
+     * @param n The number of sentences to claim
+     * @return The claimed sentences, oldest first; empty if there are none to claim
+     */
+    @Override
+    public List<Sentence> claimOldestSentencesByTheme(String theme, int n, Context context) {
+        theme = validateTheme(theme);
+        return claim(theme, Math.min(n, MAX_TRANSACTION_SIZE), false, context);
+    }
+    
+    /**
+     * Claim exactly n sentences and store them as a ready poem, in the same transaction
+     * as the claim so that sentences can't be lost between the two steps
+     */
+    @Override
+    public Poem assemblePoem(String theme, int n, Context context) {
+        theme = validateTheme(theme);
+        // The poem itself takes one slot of the transaction
+        List<Sentence> sentences = claim(theme, Math.min(n, MAX_TRANSACTION_SIZE - 1), true, context);
+        return sentences.isEmpty() ? null : Poem.fromSentences(theme, sentences);
+    }
+    
+    /**
+     * Claim n of the oldest sentences of a validated theme, see claimOldestSentencesByTheme
+     * 
+     * @param asPoem Whether to claim exactly n sentences and store them as a ready poem
+     * @return The claimed sentences, oldest first; empty if nothing was claimed
+     */
+    private List<Sentence> claim(String theme, int n, boolean asPoem, Context context) {
+        for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+            List<Map<String, AttributeValue>> items = getOldestSentencesByTheme(theme, n * CLAIM_SPREAD, context);
+            if (items.isEmpty() || (asPoem && items.size() < n)) {
+                return new ArrayList<>();
+            }
+            int block = ThreadLocalRandom.current().nextInt(Math.max(1, items.size() / n));
+            items = items.subList(block * n, Math.min(items.size(), block * n + n));
+            
+            List<Sentence> sentences = new ArrayList<>(items.size());
+            List<TransactWriteItem> writes = new ArrayList<>(items.size() + 1);
+            for (Map<String, AttributeValue> item : items) {
+                sentences.add(new Sentence(Integer.parseInt(item.get("author").n()), item.get("content").s(), theme));
+                writes.add(TransactWriteItem.builder().delete(Delete.builder()
+                    .tableName(TABLE_NAME)
+                    .key(keyOf(item))
+                    .conditionExpression("attribute_exists(#ts)")
+                    .expressionAttributeNames(Collections.singletonMap("#ts", "timestamp"))
+                    .build()).build());
+            }
+            if (asPoem) {
+                writes.add(TransactWriteItem.builder().put(Put.builder()
+                    .tableName(TABLE_NAME)
+                    .item(toPoemItem(Poem.fromSentences(theme, sentences)))
+                    .build()).build());
+            }
+            
+            long start = System.nanoTime();
             try {
-                sentencesTable.deleteItem("theme", item.getString("theme"), "timestamp", item.getNumber("timestamp"));
-                if (context != null) {
-                    context.getLogger().log("Deleted sentence: theme=" + item.getString("theme") + 
-                                          ", timestamp=" + item.getNumber("timestamp"));
-                }
-            } catch (Exception e) {
-                if (context != null) {
-                    context.getLogger().log("Failed to delete sentence: " + e.getMessage());
+                DBCPDataSource.getClient().transactWriteItems(TransactWriteItemsRequest.builder().transactItems(writes).build());
+                return sentences;
+            } catch (TransactionCanceledException e) {
+                // Another request claimed at least one of these sentences first
+                Log.warn(context, "Claim attempt " + (attempt + 1) + " lost a race: " + e.getMessage());
+                if (!asPoem) {
+                    // A smaller claim is less likely to overlap another one
+                    n = Math.max(1, n / 2);
                 }
-                allSuccessful = false;
+            } finally {
+                Metrics.current().record(Metrics.Phase.DELETE, start);
             }
         }
         
-        return allSuccessful;
+        return new ArrayList<>();
     }
     
     /**
-     * Validate and normalize a theme string
-     * 
-     * @param theme The theme to validate
-     * @return A validated and normalized theme string
+     * Claim one of the oldest ready poems of a theme with a query and a conditional delete.
+     * The poem shards are tried from a random one, and the poem is picked at random among
+     * the oldest few of the shard, so concurrent requests rarely race for the same item;
+     * a request that loses a race anyway retries against a fresh query.
      */
-    public String validateTheme(String theme) {
-        if (theme == null || theme.trim().isEmpty()) {
-            return "random";
-        }
+    @Override
+    public Poem claimPoem(String theme, Context context) {
+        theme = validateTheme(theme);
+        List<String> partitions = partitionsOf(POEM_PARTITION_PREFIX + theme);
         
-        theme = theme.toLowerCase().trim();
+        for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            int first = ThreadLocalRandom.current().nextInt(partitions.size());
+            long start = System.nanoTime();
+            for (int i = 0; i < partitions.size() && items.isEmpty(); i++) {
+                items = queryOldest(partitions.get((first + i) % partitions.size()), POEM_CLAIM_WINDOW, context);
+            }
+            Metrics.current().record(Metrics.Phase.QUERY, start);
+            if (items.isEmpty()) {
+                return null;
+            }
+            
+            Map<String, AttributeValue> item = items.get(ThreadLocalRandom.current().nextInt(items.size()));
+            start = System.nanoTime();
+            try {
+                // Read the poem from what was deleted, not from the query
+                Map<String, AttributeValue> deleted = DBCPDataSource.getClient().deleteItem(DeleteItemRequest.builder()
+                    .tableName(TABLE_NAME)
+                    .key(keyOf(item))
+                    .conditionExpression("attribute_exists(#ts)")
+                    .expressionAttributeNames(Collections.singletonMap("#ts", "timestamp"))
+                    .returnValues(ReturnValue.ALL_OLD)
+                    .build()).attributes();
+                
+                List<AttributeValue> authorValues = deleted.get("authors").l();
+                int[] authors = new int[authorValues.size()];
+                for (int i = 0; i < authors.length; i++) {
+                    authors[i] = Integer.parseInt(authorValues.get(i).n());
+                }
+                return new Poem(theme, deleted.get("content").s(), authors);
+            } catch (ConditionalCheckFailedException e) {
+                Log.warn(context, "Poem claim attempt " + (attempt + 1) + " lost a race");
+            } finally {
+                Metrics.current().record(Metrics.Phase.DELETE, start);
+            }
+        }
         
-        if (!VALID_THEMES.contains(theme)) {
-            return "random";
+        return null;
+    }
+    
+    @Override
+    public int countPoems(String theme, Context context) {
+        int count = 0;
+        long start = System.nanoTime();
+        try {
+            for (String partition : partitionsOf(POEM_PARTITION_PREFIX + validateTheme(theme))) {
+                QueryRequest request = QueryRequest.builder()
+                    .tableName(TABLE_NAME)
+                    .keyConditionExpression("theme = :theme")
+                    .expressionAttributeValues(Collections.singletonMap(":theme", AttributeValue.builder().s(partition).build()))
+                    .select(Select.COUNT)
+                    .build();
+                count += DBCPDataSource.getClient().query(request).count();
+            }
+            return count;
+        } finally {
+            Metrics.current().record(Metrics.Phase.QUERY, start);
+        }
+    }
+    
+    private Map<String, AttributeValue> toPoemItem(Poem poem) {
+        List<AttributeValue> authors = new ArrayList<>(poem.getAuthors().length);
+        for (int author : poem.getAuthors()) {
+            authors.add(AttributeValue.builder().n(Integer.toString(author)).build());
         }
         
-        return theme;
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("theme", AttributeValue.builder().s(shardOf(POEM_PARTITION_PREFIX + poem.getTheme())).build());
+        item.put("timestamp", AttributeValue.builder().n(keyGenerator.nextKey()).build());
+        item.put("content", AttributeValue.builder().s(poem.getContents()).build());
+        item.put("authors", AttributeValue.builder().l(authors).build());
+        return item;
+    }
+    
+    private static Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("theme", item.get("theme"));
+        key.put("timestamp", item.get("timestamp"));
+        return key;
     }
-}
\ No newline at end of file
+}
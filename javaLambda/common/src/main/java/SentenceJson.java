@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming JSON codec for the request bodies, queue messages and responses.
+ *
+ * Fields are read and written one token at a time with Gson's JsonReader and
+ * JsonWriter, so no JsonObject tree is built on the request path. Strings are
+ * always written through JsonWriter, which escapes quotes and control characters.
+ */
+public final class SentenceJson {
+    private SentenceJson() {
+    }
+
+    /**
+     * Read a sentence from a POST body or a queue message. Unknown fields are skipped.
+     *
+     * @param json The JSON object to read
+     * @param defaultTheme The theme to use when the theme field is missing, null or empty
+     * @return The sentence, with its content as sent
+     * @throws IllegalArgumentException if the author or content field is missing or invalid,
+     *                                  or the input is not a single JSON object
+     */
+    public static Sentence readSentence(String json, String defaultTheme) {
+        if (json == null) {
+            throw new IllegalArgumentException("Missing body");
+        }
+
+        Integer author = null;
+        String content = null;
+        String theme = null;
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("author".equals(name)) {
+                    if (reader.peek() != JsonToken.NUMBER) {
+                        throw new IllegalArgumentException("Missing or invalid 'author' field");
+                    }
+                    author = reader.nextInt();
+                } else if ("content".equals(name)) {
+                    content = readScalar(reader);
+                } else if ("theme".equals(name)) {
+                    theme = readScalar(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IllegalArgumentException("Malformed JSON body");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Missing or invalid 'author' field");
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("Malformed JSON body");
+        }
+
+        if (author == null) {
+            throw new IllegalArgumentException("Missing or invalid 'author' field");
+        }
+        if (content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("Missing or invalid 'content' field");
+        }
+        return new Sentence(author, content, theme == null || theme.isEmpty() ? defaultTheme : theme);
+    }
+
+    /**
+     * Read a string, number or boolean value as a string, or null for a JSON null
+     */
+    private static String readScalar(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                throw new IllegalArgumentException("Expected a string value");
+        }
+    }
+
+    /**
+     * Write a sentence as a queue message
+     */
+    public static String writeSentence(Sentence sentence) {
+        StringWriter out = new StringWriter(64 + sentence.getContent().length());
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("author").value(sentence.getAuthor());
+            writer.name("content").value(sentence.getContent());
+            writer.name("theme").value(sentence.getTheme());
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write a poem as a GET response body
+     */
+    public static String writePoem(Poem poem) {
+        StringWriter out = new StringWriter(64 + poem.getContents().length() + 8 * poem.getAuthors().length);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("theme").value(poem.getTheme());
+            writer.name("contents").value(poem.getContents());
+            writer.name("authors").beginArray();
+            for (int author : poem.getAuthors()) {
+                writer.value(author);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write a single-field object, e.g. {"message": "..."} for error responses
+     */
+    public static String writeField(String name, String value) {
+        StringWriter out = new StringWriter(16 + name.length() + value.length());
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name(name).value(value);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write a single-field object holding a list of strings, e.g. {"themes": [...]}
+     */
+    public static String writeList(String name, List<String> values) {
+        StringWriter out = new StringWriter(16 + name.length() + 16 * values.size());
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name(name).beginArray();
+            for (String value : values) {
+                writer.value(value);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+}
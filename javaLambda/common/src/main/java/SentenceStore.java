@@ -0,0 +1,116 @@
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * Storage engine for sentences waiting to be assembled into poems.
+ * 
+ * Two engines are available: {@link SentenceDao} backed by DynamoDB and
+ * {@link InMemorySentenceStore} for running the handlers without AWS.
+ * The engine is chosen with the SENTENCE_STORE variable, see {@link #fromEnvironment()}.
+ */
+public interface SentenceStore {
+    /**
+     * Store a single sentence
+     * 
+     * @param author The author ID
+     * @param content The sentence content
+     * @param theme The sentence theme
+     * @return The key the sentence was stored under
+     */
+    String storeSentence(int author, String content, String theme, Context context);
+
+    /**
+     * Store a batch of sentences
+     * 
+     * @param sentences The sentences to store, keyed by a caller-chosen ID (e.g. the SQS message ID)
+     * @return The IDs of the sentences that could not be stored
+     */
+    List<String> storeSentences(Map<String, Sentence> sentences, Context context);
+
+    /**
+     * Store a batch of sentences at most once per ID, so that a redelivered queue
+     * message doesn't store its sentence twice. A sentence whose ID was stored before,
+     * even if it has been claimed since, is skipped and counts as stored.
+     * 
+     * @param sentences The sentences to store, keyed by an ID unique to each sentence (e.g. the SQS message ID)
+     * @return The IDs of the sentences that could not be stored
+     */
+    List<String> storeSentencesOnce(Map<String, Sentence> sentences, Context context);
+
+    /**
+     * Remove and return up to n of the oldest sentences of a theme. A sentence is
+     * returned to at most one caller.
+     * 
+     * @param theme The theme to claim from
+     * @param n The number of sentences to claim
+     * @return The claimed sentences, oldest first; empty if there are none to claim
+     */
+    List<Sentence> claimOldestSentencesByTheme(String theme, int n, Context context);
+
+    /**
+     * Atomically claim exactly n of the oldest sentences of a theme and store them
+     * as a ready poem. Nothing is claimed if fewer than n sentences are available.
+     * 
+     * @param theme The theme to assemble a poem for
+     * @param n The number of lines of the poem
+     * @return The stored poem, or null if there were not enough sentences
+     */
+    Poem assemblePoem(String theme, int n, Context context);
+
+    /**
+     * Remove and return the oldest ready poem of a theme. A poem is returned to
+     * at most one caller.
+     * 
+     * @param theme The theme to claim from
+     * @return The claimed poem, or null if none is ready
+     */
+    Poem claimPoem(String theme, Context context);
+
+    /**
+     * Count the ready poems of a theme
+     * 
+     * @param theme The theme to count
+     * @return The number of poems waiting to be claimed
+     */
+    int countPoems(String theme, Context context);
+
+    /**
+     * Do any one-time setup ahead of the first request, such as building clients.
+     * Called before a SnapStart/CRaC snapshot; must not send requests.
+     */
+    default void prime() {
+    }
+
+    /**
+     * @return The accepted themes, loaded when the store was created
+     */
+    ThemeRegistry themes();
+
+    /**
+     * Validate and normalize a theme string
+     * 
+     * @param theme The theme to validate
+     * @return A validated and normalized theme string
+     */
+    default String validateTheme(String theme) {
+        String canonical = themes().lookup(theme);
+        return canonical != null ? canonical : ThemeTable.DEFAULT_THEME;
+    }
+
+    /**
+     * Create the engine named by the SENTENCE_STORE property or environment variable,
+     * either "dynamodb" (the default) or "memory"
+     * 
+     * @return A new sentence store
+     */
+    static SentenceStore fromEnvironment() {
+        String engine = System.getProperty("SENTENCE_STORE", System.getenv("SENTENCE_STORE") != null ?
+                                           System.getenv("SENTENCE_STORE") : "dynamodb");
+        if ("memory".equalsIgnoreCase(engine)) {
+            return new InMemorySentenceStore();
+        }
+        return new SentenceDao();
+    }
+}
@@ -0,0 +1,70 @@
+import java.math.BigDecimal;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates collision-free, sortable range keys for the sentences table.
+ * 
+ * A key is the decimal number {@code <epoch millis><4-digit sequence><10-digit writer id>}.
+ * The millis and sequence form a hybrid clock: keys from one writer are strictly increasing
+ * even if the wall clock stalls or steps back, and a full sequence rolls over into the next
+ * logical millisecond. The writer id is drawn at random per container so that two writers
+ * producing the same clock value still get different keys.
+ * 
+ * Keys stay numeric, so they fit the existing {@code timestamp} attribute of type N, and
+ * they are far larger than the legacy epoch-second keys, which therefore sort first.
+ */
+public class SortKeyGenerator {
+    private static final long SEQUENCE_RANGE = 10_000L;
+    private static final long WRITER_ID_RANGE = 10_000_000_000L;
+    private static final int WRITER_ID_DIGITS = 10;
+    // Legacy keys are epoch seconds, anything shorter than 12 digits is one of them
+    private static final BigDecimal LEGACY_KEY_LIMIT = new BigDecimal(100_000_000_000L);
+
+    private final AtomicLong lastClock = new AtomicLong();
+    private final String writerId;
+
+    public SortKeyGenerator() {
+        this(new SecureRandom().nextLong() & Long.MAX_VALUE);
+    }
+
+    public SortKeyGenerator(long writerId) {
+        StringBuilder padded = new StringBuilder(Long.toString(writerId % WRITER_ID_RANGE));
+        while (padded.length() < WRITER_ID_DIGITS) {
+            padded.insert(0, '0');
+        }
+        this.writerId = padded.toString();
+    }
+
+    /**
+     * Generate the next key for this writer
+     * 
+     * @return A numeric key, as the string form DynamoDB expects for N attributes
+     */
+    public String nextKey() {
+        return Long.toString(nextClock()) + writerId;
+    }
+
+    private long nextClock() {
+        while (true) {
+            long last = lastClock.get();
+            long next = Math.max(System.currentTimeMillis() * SEQUENCE_RANGE, last + 1);
+            if (lastClock.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Recover the epoch millis a key was generated at, accepting legacy epoch-second keys
+     * 
+     * @param key The range key as read from DynamoDB
+     * @return The epoch millis encoded in the key
+     */
+    public static long toEpochMillis(BigDecimal key) {
+        if (key.compareTo(LEGACY_KEY_LIMIT) < 0) {
+            return key.longValue() * 1000;
+        }
+        return key.movePointLeft(WRITER_ID_DIGITS).longValue() / SEQUENCE_RANGE;
+    }
+}
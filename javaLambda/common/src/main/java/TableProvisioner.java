@@ -0,0 +1,87 @@
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTimeToLiveRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughput;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import software.amazon.awssdk.services.dynamodb.model.TimeToLiveSpecification;
+import software.amazon.awssdk.services.dynamodb.model.TimeToLiveStatus;
+import software.amazon.awssdk.services.dynamodb.model.UpdateTimeToLiveRequest;
+
+/**
+ * One-shot tool that creates the sentences table. Run it once per environment
+ * before deploying the Lambda functions, so that they don't have to describe
+ * or create the table during a cold start:
+ * 
+ * java -cp Poem-In-A-Bottle-1.0-SNAPSHOT.jar TableProvisioner
+ */
+public class TableProvisioner {
+    public static void main(String[] args) {
+        ensureTableExists(DBCPDataSource.getClient());
+    }
+
+    /**
+     * Create the sentences table if it doesn't exist and wait until it is active,
+     * then enable its TTL, see ensureTimeToLive()
+     */
+    public static void ensureTableExists(DynamoDbClient client) {
+        DescribeTableRequest describeTableRequest = DescribeTableRequest.builder()
+            .tableName(SentenceDao.TABLE_NAME)
+            .build();
+        try {
+            client.describeTable(describeTableRequest);
+            // Table exists, no need to create
+        } catch (ResourceNotFoundException e) {
+            // Table doesn't exist, create it
+            CreateTableRequest createTableRequest = CreateTableRequest.builder()
+                .tableName(SentenceDao.TABLE_NAME)
+                .keySchema(
+                    KeySchemaElement.builder().attributeName("theme").keyType(KeyType.HASH).build(),  // Partition key
+                    KeySchemaElement.builder().attributeName("timestamp").keyType(KeyType.RANGE).build()  // Sort key
+                )
+                .attributeDefinitions(
+                    AttributeDefinition.builder().attributeName("theme").attributeType(ScalarAttributeType.S).build(),
+                    AttributeDefinition.builder().attributeName("timestamp").attributeType(ScalarAttributeType.N).build()
+                )
+                .provisionedThroughput(ProvisionedThroughput.builder()
+                    .readCapacityUnits(5L)
+                    .writeCapacityUnits(5L)
+                    .build())
+                .build();
+            
+            client.createTable(createTableRequest);
+            
+            // Wait for table to be active
+            System.out.println("Waiting for table to be created...");
+            client.waiter().waitUntilTableExists(describeTableRequest);
+            System.out.println("Table created successfully!");
+        }
+        ensureTimeToLive(client);
+    }
+
+    /**
+     * Enable TTL on the expiresAt attribute if it isn't already, so that the markers
+     * of stored message IDs are deleted once they expire
+     */
+    public static void ensureTimeToLive(DynamoDbClient client) {
+        TimeToLiveStatus status = client.describeTimeToLive(DescribeTimeToLiveRequest.builder()
+            .tableName(SentenceDao.TABLE_NAME)
+            .build()).timeToLiveDescription().timeToLiveStatus();
+        if (status == TimeToLiveStatus.ENABLED || status == TimeToLiveStatus.ENABLING) {
+            return;
+        }
+        
+        client.updateTimeToLive(UpdateTimeToLiveRequest.builder()
+            .tableName(SentenceDao.TABLE_NAME)
+            .timeToLiveSpecification(TimeToLiveSpecification.builder()
+                .attributeName(SentenceDao.EXPIRES_AT)
+                .enabled(true)
+                .build())
+            .build());
+        System.out.println("Time to live enabled on " + SentenceDao.EXPIRES_AT);
+    }
+}
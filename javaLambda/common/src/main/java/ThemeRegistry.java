@@ -0,0 +1,159 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+/**
+ * The themes currently accepted, cached in memory and refreshed from a source once
+ * their TTL has passed.
+ *
+ * Lookups go to the cached ThemeTable and never wait for the source. The themes are
+ * loaded once during init; after that, the first caller past the TTL starts a reload on
+ * a background thread and every caller keeps using the previous table until it is done.
+ * If the source fails or has no themes, the previous table stays in use until the next
+ * TTL.
+ *
+ * The source is the metadata item {theme: "meta#themes", timestamp: 0} of the sentences
+ * table, whose "themes" attribute is a string set (or a comma-separated string). Adding
+ * a theme there makes both functions accept it within one TTL, without a redeploy.
+ */
+public class ThemeRegistry {
+    public static final String METADATA_PARTITION = "meta#themes";
+
+    private final Supplier<Collection<String>> source;
+    private final long ttlNanos;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    // Runs reloads off the request thread; its thread is only started by the first one
+    private final Executor refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "theme-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ThemeTable table;
+    private volatile long loadedAt;
+
+    /**
+     * @param initial The themes to use until the source has been read, see load()
+     * @param source Reads the current themes, returning null if there are none; null for a fixed set of themes
+     * @param ttlMillis How long a loaded set of themes is used before it is read again
+     */
+    public ThemeRegistry(ThemeTable initial, Supplier<Collection<String>> source, long ttlMillis) {
+        this.table = initial;
+        this.source = source;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.loadedAt = System.nanoTime() - this.ttlNanos;
+    }
+
+    /**
+     * Create the registry configured by the environment. The themes start from the
+     * THEMES variable (see ThemeTable.fromEnvironment()). If THEME_REFRESH_SECONDS is
+     * greater than 0 (default 0), they are reloaded from the DynamoDB metadata item at
+     * that interval; call load() during init to read it before the first request.
+     *
+     * @return A new theme registry, not loaded yet
+     */
+    public static ThemeRegistry fromEnvironment() {
+        long refreshSeconds = Long.parseLong(System.getProperty("THEME_REFRESH_SECONDS",
+                                             System.getenv("THEME_REFRESH_SECONDS") != null ? System.getenv("THEME_REFRESH_SECONDS") : "0"));
+        if (refreshSeconds <= 0) {
+            return new ThemeRegistry(ThemeTable.fromEnvironment(), null, 0);
+        }
+        return new ThemeRegistry(ThemeTable.fromEnvironment(), ThemeRegistry::loadFromDynamoDb,
+                                 TimeUnit.SECONDS.toMillis(refreshSeconds));
+    }
+
+    /**
+     * Read the themes from the source now, on the calling thread. Call during init, so
+     * that requests start with the current themes and don't wait for them.
+     */
+    public void load() {
+        if (source != null && refreshing.compareAndSet(false, true)) {
+            try {
+                refresh();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Get the current themes, starting a background reload if their TTL has passed and
+     * none is running
+     *
+     * @return The current theme table, which may be up to one reload out of date
+     */
+    public ThemeTable current() {
+        if (source != null && System.nanoTime() - loadedAt >= ttlNanos && refreshing.compareAndSet(false, true)) {
+            try {
+                refresher.execute(() -> {
+                    try {
+                        refresh();
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                refreshing.set(false);
+                throw e;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Find a theme, ignoring case and surrounding whitespace
+     *
+     * @param theme The theme name
+     * @return The canonical theme name, or null if it is not a known theme
+     */
+    public String lookup(String theme) {
+        return current().lookup(theme);
+    }
+
+    private void refresh() {
+        try {
+            Collection<String> themes = source.get();
+            if (themes != null && !themes.isEmpty()) {
+                ThemeTable loaded = new ThemeTable(themes);
+                // Keep the same table while nothing changes, so that callers caching per table don't rebuild
+                if (!loaded.themes().equals(table.themes())) {
+                    table = loaded;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.warn("Error loading themes, keeping " + table.themes() + ": " + e.getMessage());
+        } finally {
+            loadedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Read the themes from the metadata item of the sentences table
+     *
+     * @return The themes, or null if the item doesn't exist
+     */
+    static Collection<String> loadFromDynamoDb() {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("theme", AttributeValue.builder().s(METADATA_PARTITION).build());
+        key.put("timestamp", AttributeValue.builder().n("0").build());
+
+        GetItemResponse response = DBCPDataSource.getClient().getItem(GetItemRequest.builder()
+            .tableName(SentenceDao.TABLE_NAME)
+            .key(key)
+            .build());
+        AttributeValue themes = response.hasItem() ? response.item().get("themes") : null;
+        if (themes == null) {
+            return null;
+        }
+        return themes.hasSs() ? themes.ss() : Arrays.asList(themes.s().split(","));
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fixed set of themes with a case-insensitive lookup that doesn't allocate.
+ *
+ * Themes are stored lowercase in an open-addressing table, and a lookup hashes and
+ * compares the characters of any region of a string in place, so a theme can be looked
+ * up straight out of a request path or body without a substring or toLowerCase copy.
+ * Every lookup returns the same canonical String instance for a theme.
+ * Tables are immutable, see ThemeRegistry for the themes currently in use.
+ */
+public final class ThemeTable {
+    public static final String DEFAULT_THEME = "random";
+    private static final String DEFAULT_THEMES = "random,love,death,nature,beauty";
+
+    private final List<String> themes;
+    // Index into themes for each slot, -1 for an empty slot
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * @param themes The theme names, case-insensitive; the default theme is always included
+     */
+    public ThemeTable(Collection<String> themes) {
+        List<String> canonical = new ArrayList<>();
+        canonical.add(DEFAULT_THEME);
+        for (String theme : themes) {
+            // Interned, so a theme is the same String instance in every table
+            String name = theme.trim().toLowerCase(Locale.ROOT).intern();
+            if (!name.isEmpty() && !canonical.contains(name)) {
+                canonical.add(name);
+            }
+        }
+        this.themes = Collections.unmodifiableList(canonical);
+
+        // At most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(canonical.size() * 4 - 1);
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < canonical.size(); i++) {
+            String name = canonical.get(i);
+            int slot = hash(name, 0, name.length()) & mask;
+            while (slots[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i;
+        }
+    }
+
+    /**
+     * Load the themes named by the THEMES property or environment variable, a
+     * comma-separated list (default "random,love,death,nature,beauty")
+     *
+     * @return A new theme table
+     */
+    public static ThemeTable fromEnvironment() {
+        String themes = System.getProperty("THEMES", System.getenv("THEMES") != null ?
+                                           System.getenv("THEMES") : DEFAULT_THEMES);
+        return new ThemeTable(Arrays.asList(themes.split(",")));
+    }
+
+    /**
+     * @return The canonical theme names, the default theme first
+     */
+    public List<String> themes() {
+        return themes;
+    }
+
+    /**
+     * @return The number of themes
+     */
+    public int size() {
+        return themes.size();
+    }
+
+    /**
+     * Get a theme by index
+     *
+     * @param index An index returned by indexOf
+     * @return The canonical theme name
+     */
+    public String get(int index) {
+        return themes.get(index);
+    }
+
+    /**
+     * Find a theme in a region of a string, ignoring case
+     *
+     * @param s The string to look in
+     * @param start The start of the theme name, inclusive
+     * @param end The end of the theme name, exclusive
+     * @return The index of the theme, or -1 if the region is not a known theme
+     */
+    public int indexOf(CharSequence s, int start, int end) {
+        int slot = hash(s, start, end) & mask;
+        int index;
+        while ((index = slots[slot]) != -1) {
+            if (matches(themes.get(index), s, start, end)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Find a theme, ignoring case and surrounding whitespace
+     *
+     * @param theme The theme name
+     * @return The canonical theme name, or null if it is not a known theme
+     */
+    public String lookup(String theme) {
+        if (theme == null) {
+            return null;
+        }
+        int start = 0;
+        int end = theme.length();
+        while (start < end && Character.isWhitespace(theme.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(theme.charAt(end - 1))) {
+            end--;
+        }
+        int index = indexOf(theme, start, end);
+        return index >= 0 ? themes.get(index) : null;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + toLowerCase(s.charAt(i));
+        }
+        // Spread the high bits into the low ones used for the slot
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String theme, CharSequence s, int start, int end) {
+        if (theme.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < theme.length(); i++) {
+            if (theme.charAt(i) != toLowerCase(s.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerCase(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c < 128 ? c : Character.toLowerCase(c);
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local harness that measures handler init duration, i.e. the time from JVM start
+ * until the handler is constructed and ready for its first request. Every sample
+ * runs in a fresh JVM, like a Lambda cold start.
+ *
+ * Three init modes are compared:
+ * - bootstrap: all clients are built and the table is checked during init, as before
+ * - eager: all clients are built during init, the table is not checked
+ * - lazy: the current default, clients are built on first use and the table is not checked
+ *
+ * The bootstrap mode calls describeTable, so point DYNAMODB_ENDPOINT at a DynamoDB Local
+ * instance (or provide AWS credentials) for it to succeed:
+ *
+ * java -cp target/Poem-In-A-Bottle-1.0-SNAPSHOT.jar InitTimer [runs]
+ */
+public class InitTimer {
+    private static final String[] HANDLERS = {"PostSentenceGetPoemHandler", "SentenceConsumer"};
+    private static final String[] MODES = {"bootstrap", "eager", "lazy"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "--child".equals(args[0])) {
+            runChild(args[1], args[2]);
+            return;
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        System.out.println(String.format("%-28s %-9s %10s %10s %10s", "handler", "mode", "min ms", "median ms", "max ms"));
+        for (String handler : HANDLERS) {
+            for (String mode : MODES) {
+                List<Long> samples = new ArrayList<>();
+                for (int i = 0; i < runs; i++) {
+                    long sample = sampleChild(handler, mode);
+                    if (sample >= 0) {
+                        samples.add(sample);
+                    }
+                }
+                if (samples.isEmpty()) {
+                    System.out.println(String.format("%-28s %-9s %10s", handler, mode, "failed"));
+                    continue;
+                }
+                Collections.sort(samples);
+                System.out.println(String.format("%-28s %-9s %10d %10d %10d", handler, mode,
+                    samples.get(0), samples.get(samples.size() / 2), samples.get(samples.size() - 1)));
+            }
+        }
+    }
+
+    /**
+     * Start a fresh JVM that constructs one handler and reports its init duration
+     *
+     * @return The init duration in milliseconds, or -1 if the child failed
+     */
+    private static long sampleChild(String handler, String mode) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            InitTimer.class.getName(), "--child", handler, mode);
+        Map<String, String> env = builder.environment();
+        env.putIfAbsent("AWS_REGION", "us-west-2");
+        env.putIfAbsent("AWS_JAVA_V1_DISABLE_DEPRECATION_ANNOUNCEMENT", "true");
+        env.put("BOOTSTRAP_TABLE", Boolean.toString("bootstrap".equals(mode)));
+        builder.redirectErrorStream(true);
+
+        Process process = builder.start();
+        long initMs = -1;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("init_ms=")) {
+                    initMs = Long.parseLong(line.substring("init_ms=".length()));
+                } else {
+                    System.err.println("  [" + handler + "/" + mode + "] " + line);
+                }
+            }
+        }
+        return process.waitFor() == 0 ? initMs : -1;
+    }
+
+    private static void runChild(String handler, String mode) {
+        if ("PostSentenceGetPoemHandler".equals(handler)) {
+            PostSentenceGetPoemHandler instance = new PostSentenceGetPoemHandler();
+            if (!"lazy".equals(mode)) {
+                instance.beforeCheckpoint(null);
+            }
+        } else {
+            SentenceConsumer instance = new SentenceConsumer();
+            if (!"lazy".equals(mode)) {
+                instance.beforeCheckpoint(null);
+            }
+        }
+        System.out.println("init_ms=" + ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+}
@@ -1,137 +1,174 @@
-import java.io.IOException;
+import java.net.URI;
 import java.util.List;
-import java.util.Random;
 
-import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-
-public class PostSentenceGetPoemHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse> {
-    private static final Gson gson = new Gson();
-    private static final AmazonSQS sqsClient = AmazonSQSClientBuilder.defaultClient();
+import org.crac.Core;
+import org.crac.Resource;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.SqsClientBuilder;
+
+public class PostSentenceGetPoemHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse>, Resource {
     private static final String AWS_REGION = System.getenv("AWS_REGION") != null ? System.getenv("AWS_REGION") : "us-west-2";
     private static final String SQS_QUEUE_URL = System.getenv("SQS_QUEUE_URL");
+    // Optional endpoint override, e.g. http://localhost:9324 for ElasticMQ
+    private static final String SQS_ENDPOINT = System.getenv("SQS_ENDPOINT");
+    
+    enum Action { STORE_SENTENCE, GET_POEM, GET_THEMES }
+    
+    private final SentenceStore sentenceStore;
+    final Router<Action> router;
+    private final SqsClient sqsClient;
+    private final SqsBatchSender sqsSender = new SqsBatchSender(this::sqs, SQS_QUEUE_URL);
+    private final SortKeyGenerator deduplicationIds = new SortKeyGenerator();
     
-    private final SentenceDao sentenceDao;
+    // Built on first use so that containers only serving GET requests never create it
+    private static class SqsClientHolder {
+        private static final SqsClient sqsClient = buildSqsClient();
+    }
+    
+    private static SqsClient buildSqsClient() {
+        SqsClientBuilder builder = SqsClient.builder()
+                .region(Region.of(AWS_REGION))
+                .httpClientBuilder(UrlConnectionHttpClient.builder());
+        if (SQS_ENDPOINT != null) {
+            builder.endpointOverride(URI.create(SQS_ENDPOINT));
+        }
+        return builder.build();
+    }
     
     public PostSentenceGetPoemHandler() {
-        this.sentenceDao = new SentenceDao();
+        this(SentenceStore.fromEnvironment(), null);
+        // Only called back when SnapStart is enabled on the function
+        Core.getGlobalContext().register(this);
+    }
+    
+    /**
+     * Create a handler on the given store and queue, e.g. an in-memory store and a
+     * fake SQS client to run the request path without AWS
+     * 
+     * @param sqsClient The SQS client, or null for the default one created on first use
+     */
+    public PostSentenceGetPoemHandler(SentenceStore sentenceStore, SqsClient sqsClient) {
+        this.sentenceStore = sentenceStore;
+        this.sqsClient = sqsClient;
+        // Add a route here; themes come from the store's theme registry
+        this.router = new Router<Action>(sentenceStore.themes())
+                .route("POST", "/sentence", false, Action.STORE_SENTENCE)
+                .route("GET", "/poem", true, Action.GET_POEM)
+                .route("GET", "/poem/{theme}", true, Action.GET_POEM)
+                .route("GET", "/themes", true, Action.GET_THEMES);
+    }
+    
+    private SqsClient sqs() {
+        return sqsClient != null ? sqsClient : SqsClientHolder.sqsClient;
+    }
+    
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        // Build the clients and load the JSON classes before the snapshot is taken
+        sentenceStore.prime();
+        sqs();
+        Sentence sentence = SentenceJson.readSentence("{\"author\": 1, \"content\": \"prime\", \"theme\": \"love\"}", "random");
+        SentenceJson.writeSentence(sentence);
+        SentenceJson.writePoem(new Poem(sentence.getTheme(), sentence.getContent(), new int[] {sentence.getAuthor()}));
+    }
+    
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
     }
 
     @Override
     public APIGatewayV2HTTPResponse handleRequest(APIGatewayV2HTTPEvent input, Context context) {
-        String path = input.getRawPath();
-        String httpMethod = input.getRequestContext().getHttp().getMethod();
-        APIGatewayV2HTTPResponse response = new APIGatewayV2HTTPResponse();
+        Metrics metrics = Metrics.start("PostSentenceGetPoemHandler");
+        Router.Match<Action> route = router.match(input.getRequestContext().getHttp().getMethod(), input.getRawPath());
 
         try {
-            if ("POST".equalsIgnoreCase(httpMethod) && path.matches("^/sentence$")) {
-                return storeSentence(input);
-            } else if ("GET".equalsIgnoreCase(httpMethod) && path.matches("(?i)^/poem(/(random|love|death|nature|beauty))?$")) {
-                return getPoem(path, context);
+            if (route == null) {
+                return createErrorResponse(400, "Invalid input");
+            }
+            
+            switch (route.getTarget()) {
+                case STORE_SENTENCE:
+                    return storeSentence(input, metrics);
+                case GET_POEM:
+                    return getPoem(route.getTheme() != null ? route.getTheme() : ThemeTable.DEFAULT_THEME, metrics, context);
+                case GET_THEMES:
+                    return getThemes();
+                default:
+                    return createErrorResponse(400, "Invalid input");
             }
-
-            response.setStatusCode(400);
-            response.setBody("{\"message\": \"Invalid input\"}");
         } catch (Exception e) {
-            context.getLogger().log("Error handling request: " + e.getMessage());
-            response.setStatusCode(500);
-            response.setBody("{\"message\": \"Server error\"}");
+            Log.error(context, "Error handling request: " + e.getMessage());
+            return createErrorResponse(500, "Server error");
+        } finally {
+            metrics.emit(context);
         }
-
-        return response;
     }
 
-    private APIGatewayV2HTTPResponse storeSentence(APIGatewayV2HTTPEvent input) throws IOException {
-        JsonObject bodyJson = JsonParser.parseString(input.getBody()).getAsJsonObject();
-        APIGatewayV2HTTPResponse response = new APIGatewayV2HTTPResponse();
-
-        // Validate required fields and types
-        if (!bodyJson.has("author") || !bodyJson.get("author").isJsonPrimitive() || !bodyJson.get("author").getAsJsonPrimitive().isNumber()) {
-            return createErrorResponse(400, "Missing or invalid 'author' field");
-        }
-        if (!bodyJson.has("content") || !bodyJson.get("content").isJsonPrimitive() || bodyJson.get("content").getAsString().isEmpty()) {
-            return createErrorResponse(400, "Missing or invalid 'content' field");
+    private APIGatewayV2HTTPResponse storeSentence(APIGatewayV2HTTPEvent input, Metrics metrics) {
+        // Read and validate the body in one pass, without building a JSON tree
+        long start = System.nanoTime();
+        Sentence sentence;
+        try {
+            sentence = SentenceJson.readSentence(input.getBody(), "random");
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(400, e.getMessage());
+        } finally {
+            metrics.record(Metrics.Phase.PARSE, start);
         }
 
-        // Extract and validate fields
-        int author = bodyJson.get("author").getAsInt();
-        String content = bodyJson.get("content").getAsString().trim();
-        String theme = bodyJson.has("theme") && !bodyJson.get("theme").getAsString().isEmpty()
-                ? bodyJson.get("theme").getAsString().trim().toLowerCase()
-                : "random";
+        // Normalize fields and validate theme
+        start = System.nanoTime();
+        int author = sentence.getAuthor();
+        String content = sentence.getContent().trim();
+        String theme = sentenceStore.validateTheme(sentence.getTheme());
+        metrics.record(Metrics.Phase.VALIDATE, start);
 
-        // Validate theme
-        theme = sentenceDao.validateTheme(theme);
+        start = System.nanoTime();
+        String message = SentenceJson.writeSentence(new Sentence(author, content, theme));
+        metrics.record(Metrics.Phase.SERIALIZE, start);
 
-        // Create message in JSON format
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("author", author);
-        jsonObject.addProperty("content", content);
-        jsonObject.addProperty("theme", theme);
-        String message = gson.toJson(jsonObject);
-
-        // Send message to FIFO SQS queue with MessageGroupId based on theme
-        SendMessageRequest sendMessageRequest = new SendMessageRequest()
-                .withQueueUrl(SQS_QUEUE_URL)
-                .withMessageBody(message)
-                .withMessageGroupId(theme)
-                .withMessageDeduplicationId(author + "-" + System.currentTimeMillis());
-        sqsClient.sendMessage(sendMessageRequest);
+        // Send message to FIFO SQS queue with MessageGroupId based on theme. The deduplication ID
+        // comes from the collision-free key generator, so two posts in the same millisecond both go through
+        start = System.nanoTime();
+        sqsSender.send(message, theme, author + "-" + deduplicationIds.nextKey());
+        metrics.record(Metrics.Phase.SQS_SEND, start);
 
         // Create response
+        APIGatewayV2HTTPResponse response = new APIGatewayV2HTTPResponse();
         response.setStatusCode(201);
-        response.setBody("{\"msg\": \"Sentence queued for theme: " + theme + "\"}");
+        response.setBody(SentenceJson.writeField("msg", "Sentence queued for theme: " + theme));
         return response;
     }
 
-    private APIGatewayV2HTTPResponse getPoem(String path, Context context) throws Exception {
-        // Extract theme from path
-        String theme = "random"; // Default theme
-        if (path.contains("/")) {
-            String[] pathParts = path.split("/");
-            if (pathParts.length > 2) {
-                theme = pathParts[2].toLowerCase();
-            }
-        }
-        
-        // Validate theme using the DAO
-        theme = sentenceDao.validateTheme(theme);
-        
-        // Generate random number n between 3 and 14 inclusive
-        int n = 3 + new Random().nextInt(12);
-        context.getLogger().log("Getting " + n + " oldest sentences with theme: " + theme);
-        
-        // Query DynamoDB for n oldest sentences by theme using the DAO
-        List<Item> items = sentenceDao.getOldestSentencesByTheme(theme, n, context);
-        
-        if (items.isEmpty()) {
-            return createErrorResponse(404, "No sentences found for theme: " + theme);
-        }
+    /**
+     * @param theme A canonical theme from the router
+     */
+    private APIGatewayV2HTTPResponse getPoem(String theme, Metrics metrics, Context context) throws Exception {
+        // Take a pre-assembled poem if the consumer has one ready
+        Poem poem = PoemAssembler.POEM_BUFFER_SIZE > 0 ? sentenceStore.claimPoem(theme, context) : null;
         
-        // Create poem from sentences
-        int[] authors = new int[items.size()];
-        StringBuilder contentBuilder = new StringBuilder();
-        
-        for (int i = 0; i < items.size(); i++) {
-            Item item = items.get(i);
-            authors[i] = item.getInt("author");
-            contentBuilder.append(item.getString("content")).append("\n");
-        }
-        
-        // Delete sentences from DynamoDB using the DAO
-        boolean deletionSuccess = sentenceDao.deleteSentences(items, context);
-        if (!deletionSuccess) {
-            context.getLogger().log("Warning: Failed to delete some sentences");
+        if (poem == null) {
+            // Generate random number n between 3 and 14 inclusive
+            int n = PoemAssembler.randomLength();
+            if (Log.isDebugEnabled()) {
+                Log.debug(context, "Getting " + n + " oldest sentences with theme: " + theme);
+            }
+            
+            // Claim the n oldest sentences by theme; they are deleted in the same step
+            List<Sentence> sentences = sentenceStore.claimOldestSentencesByTheme(theme, n, context);
+            
+            if (sentences.isEmpty()) {
+                return createErrorResponse(404, "No sentences found for theme: " + theme);
+            }
+            
+            // Create poem from sentences
+            poem = Poem.fromSentences(theme, sentences);
         }
         
         // Create response
@@ -139,26 +176,24 @@ public class PostSentenceGetPoemHandler implements RequestHandler<APIGatewayV2HT
         response.setStatusCode(200);
         
         // Format poem response
-        JsonObject poemJson = new JsonObject();
-        poemJson.addProperty("theme", theme);
-        poemJson.addProperty("contents", contentBuilder.toString().trim());
-        
-        // Add authors array
-        JsonArray authorsArray = new JsonArray();
-        for (int author : authors) {
-            authorsArray.add(author);
-        }
-        poemJson.add("authors", authorsArray);
+        long start = System.nanoTime();
+        response.setBody(SentenceJson.writePoem(poem));
+        metrics.record(Metrics.Phase.SERIALIZE, start);
+        return response;
+    }
 
-        // Set response body
-        response.setBody(gson.toJson(poemJson));
+    private APIGatewayV2HTTPResponse getThemes() {
+        // Lets clients spread their load over every theme, including ones added since they started
+        APIGatewayV2HTTPResponse response = new APIGatewayV2HTTPResponse();
+        response.setStatusCode(200);
+        response.setBody(SentenceJson.writeList("themes", sentenceStore.themes().current().themes()));
         return response;
     }
 
     private APIGatewayV2HTTPResponse createErrorResponse(int statusCode, String message) {
         APIGatewayV2HTTPResponse response = new APIGatewayV2HTTPResponse();
         response.setStatusCode(statusCode);
-        response.setBody("{\"message\": \"" + message + "\"}");
+        response.setBody(SentenceJson.writeField("message", message));
         return response;
     }
 }
\ No newline at end of file
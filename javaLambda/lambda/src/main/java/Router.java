@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps a request method and path to a target, without regular expressions.
+ *
+ * A route is a literal path, optionally ending in a {theme} segment that matches any
+ * current theme of the registry. Matches are built once per route and theme, and again
+ * only when the registry's themes change, so matching a request compares characters in
+ * place and allocates nothing.
+ *
+ * @param <T> The route target, e.g. an enum of actions
+ */
+public class Router<T> {
+    private static final String THEME_SEGMENT = "/{theme}";
+
+    private final ThemeRegistry registry;
+    private final List<RouteSpec<T>> specs = new ArrayList<>();
+    private volatile Routes<T> routes;
+
+    /**
+     * The result of matching a request
+     */
+    public static final class Match<T> {
+        private final T target;
+        private final String theme;
+
+        private Match(T target, String theme) {
+            this.target = target;
+            this.theme = theme;
+        }
+
+        public T getTarget() {
+            return target;
+        }
+
+        /**
+         * @return The canonical theme from the path, or null if the route has no theme segment
+         */
+        public String getTheme() {
+            return theme;
+        }
+    }
+
+    private static final class RouteSpec<T> {
+        private final String method;
+        private final String path;
+        private final boolean ignoreCase;
+        private final T target;
+
+        private RouteSpec(String method, String path, boolean ignoreCase, T target) {
+            this.method = method;
+            this.path = path;
+            this.ignoreCase = ignoreCase;
+            this.target = target;
+        }
+    }
+
+    // The routes built for one set of themes
+    private static final class Routes<T> {
+        private final ThemeTable themes;
+        private final List<Route<T>> routes;
+
+        private Routes(ThemeTable themes, List<Route<T>> routes) {
+            this.themes = themes;
+            this.routes = routes;
+        }
+    }
+
+    private static final class Route<T> {
+        private final String method;
+        private final String prefix;
+        private final boolean ignoreCase;
+        private final boolean themed;
+        // One match per theme index, or a single match with no theme
+        private final Match<T>[] matches;
+
+        private Route(String method, String prefix, boolean ignoreCase, boolean themed, Match<T>[] matches) {
+            this.method = method;
+            this.prefix = prefix;
+            this.ignoreCase = ignoreCase;
+            this.themed = themed;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * @param registry The themes a {theme} segment accepts
+     */
+    public Router(ThemeRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Add a route. Routes are tried in the order they were added.
+     *
+     * @param method The HTTP method, matched ignoring case
+     * @param path The path, e.g. "/sentence" or "/poem/{theme}"
+     * @param ignoreCase Whether the path is matched ignoring case; themes always are
+     * @param target The target to return for matching requests
+     * @return This router
+     */
+    public synchronized Router<T> route(String method, String path, boolean ignoreCase, T target) {
+        specs.add(new RouteSpec<>(method, path, ignoreCase, target));
+        routes = null;
+        return this;
+    }
+
+    private synchronized Routes<T> build(ThemeTable themes) {
+        List<Route<T>> built = new ArrayList<>(specs.size());
+        for (RouteSpec<T> spec : specs) {
+            Match<T>[] matches;
+            String prefix;
+            boolean themed = spec.path.endsWith(THEME_SEGMENT);
+            if (themed) {
+                prefix = spec.path.substring(0, spec.path.length() - THEME_SEGMENT.length());
+                matches = newMatches(themes.size());
+                for (int i = 0; i < matches.length; i++) {
+                    matches[i] = new Match<>(spec.target, themes.get(i));
+                }
+            } else {
+                prefix = spec.path;
+                matches = newMatches(1);
+                matches[0] = new Match<>(spec.target, null);
+            }
+            built.add(new Route<>(spec.method, prefix, spec.ignoreCase, themed, matches));
+        }
+        return new Routes<>(themes, built);
+    }
+
+    // Generic arrays can't be created directly; the array only ever holds Match<T>
+    @SuppressWarnings("unchecked")
+    private static <T> Match<T>[] newMatches(int length) {
+        return (Match<T>[]) new Match<?>[length];
+    }
+
+    /**
+     * Match a request against the routes
+     *
+     * @param method The request method
+     * @param path The request path
+     * @return The first matching route, or null if there is none or the theme is unknown
+     */
+    public Match<T> match(String method, String path) {
+        if (method == null || path == null) {
+            return null;
+        }
+
+        ThemeTable themes = registry.current();
+        Routes<T> current = routes;
+        if (current == null || current.themes != themes) {
+            current = build(themes);
+            routes = current;
+        }
+
+        for (int i = 0; i < current.routes.size(); i++) {
+            Route<T> route = current.routes.get(i);
+            int prefixLength = route.prefix.length();
+            if (!route.method.equalsIgnoreCase(method)
+                || !path.regionMatches(route.ignoreCase, 0, route.prefix, 0, prefixLength)) {
+                continue;
+            }
+
+            if (!route.themed) {
+                if (path.length() == prefixLength) {
+                    return route.matches[0];
+                }
+            } else if (path.length() > prefixLength && path.charAt(prefixLength) == '/') {
+                int theme = themes.indexOf(path, prefixLength + 1, path.length());
+                if (theme >= 0) {
+                    return route.matches[theme];
+                }
+            }
+        }
+        return null;
+    }
+}
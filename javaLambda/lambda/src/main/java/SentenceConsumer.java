@@ -1,52 +1,139 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse.BatchItemFailure;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent.SQSMessage;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import org.crac.Core;
+import org.crac.Resource;
+
+public class SentenceConsumer implements RequestHandler<SQSEvent, SQSBatchResponse>, Resource {
+    // Message IDs remembered per container, see storedIds
+    private static final int STORED_IDS_CACHE_SIZE = Integer.parseInt(System.getProperty("STORED_IDS_CACHE_SIZE",
+                                                         System.getenv("STORED_IDS_CACHE_SIZE") != null ? System.getenv("STORED_IDS_CACHE_SIZE") : "10000"));
 
-public class SentenceConsumer implements RequestHandler<SQSEvent, Void> {
-    private final SentenceDao sentenceDao;
+    private final SentenceStore sentenceStore;
+    private final PoemAssembler poemAssembler;
+    // Messages this container already stored, so most redeliveries are dropped without a
+    // DynamoDB call; the store rejects the ones that were stored by another container
+    private final RecentIds storedIds = new RecentIds(STORED_IDS_CACHE_SIZE);
 
     public SentenceConsumer() {
-        this.sentenceDao = new SentenceDao();
+        this(SentenceStore.fromEnvironment());
+        // Only called back when SnapStart is enabled on the function
+        Core.getGlobalContext().register(this);
+    }
+
+    public SentenceConsumer(SentenceStore sentenceStore) {
+        this.sentenceStore = sentenceStore;
+        this.poemAssembler = new PoemAssembler(sentenceStore);
     }
 
     @Override
-    public Void handleRequest(SQSEvent sqsEvent, Context context) {
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        // Build the DynamoDB client and load the JSON classes before the snapshot is taken
+        sentenceStore.prime();
+        SentenceJson.readSentence("{\"author\": 1, \"content\": \"prime\", \"theme\": \"love\"}", null);
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent sqsEvent, Context context) {
+        Metrics metrics = Metrics.start("SentenceConsumer");
         try {
-            for (SQSMessage msg : sqsEvent.getRecords()) {
-                processSentence(msg, context);
+            return processBatch(sqsEvent, metrics, context);
+        } finally {
+            metrics.emit(context);
+        }
+    }
+
+    private SQSBatchResponse processBatch(SQSEvent sqsEvent, Metrics metrics, Context context) {
+        // Keyed by message ID so that failed writes can be reported back to SQS
+        Map<String, Sentence> sentences = new LinkedHashMap<>();
+        for (SQSMessage msg : sqsEvent.getRecords()) {
+            if (storedIds.contains(msg.getMessageId())) {
+                Log.debug(context, "Skipped redelivered message " + msg.getMessageId());
+                continue;
+            }
+            long start = System.nanoTime();
+            Sentence sentence = parseSentence(msg, context);
+            metrics.record(Metrics.Phase.PARSE, start);
+            if (sentence != null) {
+                sentences.put(msg.getMessageId(), sentence);
             }
+        }
+
+        // Stored at most once per message ID, a redelivered message is skipped rather than stored again
+        long start = System.nanoTime();
+        List<String> failedIds;
+        try {
+            failedIds = sentenceStore.storeSentencesOnce(sentences, context);
         } catch (Exception e) {
-            context.getLogger().log("Error processing messages: " + e.getMessage());
+            Log.error(context, "Error processing messages: " + e.getMessage());
+            failedIds = new ArrayList<>(sentences.keySet());
+        }
+        metrics.record(Metrics.Phase.STORE, start);
+
+        List<BatchItemFailure> batchItemFailures = new ArrayList<>(failedIds.size());
+        for (String messageId : failedIds) {
+            batchItemFailures.add(new BatchItemFailure(messageId));
+        }
+        Set<String> failed = new HashSet<>(failedIds);
+        for (String messageId : sentences.keySet()) {
+            if (!failed.contains(messageId)) {
+                storedIds.add(messageId);
+            }
+        }
+
+        // Pack the new sentences into ready poems, so GET requests only have to claim one
+        Set<String> themes = new HashSet<>();
+        for (Sentence sentence : sentences.values()) {
+            themes.add(sentenceStore.validateTheme(sentence.getTheme()));
+        }
+        for (String theme : themes) {
+            start = System.nanoTime();
+            try {
+                poemAssembler.refill(theme, context);
+            } catch (Exception e) {
+                // The sentences are stored either way, a GET can still assemble them on demand
+                Log.error(context, "Error assembling poems: " + e.getMessage());
+            }
+            metrics.record(Metrics.Phase.ASSEMBLE, start);
         }
-        return null;
+
+        // Only the failed messages are redelivered by SQS
+        return new SQSBatchResponse(batchItemFailures);
     }
 
-    private void processSentence(SQSMessage msg, Context context) {
+    private Sentence parseSentence(SQSMessage msg, Context context) {
         try {
             String messageBody = msg.getBody();
-            context.getLogger().log("Processing message: " + messageBody);
-
-            // Parse the message body as JSON
-            JsonObject jsonObject = JsonParser.parseString(messageBody).getAsJsonObject();
-
-            // Validate the required fields
-            if (!jsonObject.has("author") || !jsonObject.has("content") || !jsonObject.has("theme")) {
-                context.getLogger().log("Invalid message format: " + messageBody);
-                return;
+            if (Log.isDebugEnabled()) {
+                Log.debug(context, "Processing message: " + messageBody);
             }
 
-            int author = jsonObject.get("author").getAsInt();
-            String content = jsonObject.get("content").getAsString();
-            String theme = jsonObject.get("theme").getAsString();
+            // Parse and validate the message body in one pass
+            Sentence sentence = SentenceJson.readSentence(messageBody, null);
+            if (sentence.getTheme() == null) {
+                Log.warn(context, "Invalid message format: " + messageBody);
+                return null;
+            }
 
-            // Store the sentence in DynamoDB using the DAO
-            sentenceDao.storeSentence(author, content, theme, context);
-            
+            return sentence;
         } catch (Exception e) {
-            context.getLogger().log("Error processing message: " + e.getMessage());
+            // Malformed messages would never succeed on redelivery, so they are dropped
+            Log.warn(context, "Error processing message: " + e.getMessage());
+            return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+
+/**
+ * Sends FIFO messages to SQS, coalescing concurrent sends into SendMessageBatch calls.
+ *
+ * There is no linger time: a caller that finds a free in-flight slot sends whatever is
+ * queued, up to 10 messages per call, and callers that find every slot busy wait for
+ * their own message to be acknowledged by someone else's call. A lone request therefore
+ * costs one call, as before, while concurrent requests in the same container pile up
+ * behind the in-flight calls and share the next ones instead of each paying a round-trip.
+ */
+public class SqsBatchSender {
+    // SendMessageBatch accepts at most 10 entries per call
+    public static final int MAX_BATCH_SIZE = 10;
+    private static final int MAX_IN_FLIGHT_BATCHES = 4;
+
+    private final Supplier<SqsClient> sqsClient;
+    private final String queueUrl;
+    private final Queue<PendingMessage> pending = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_BATCHES);
+
+    /**
+     * @param sqsClient Supplies the SQS client, called on every batch send
+     * @param queueUrl The URL of the FIFO queue
+     */
+    public SqsBatchSender(Supplier<SqsClient> sqsClient, String queueUrl) {
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+    }
+
+    /**
+     * Send a message and block until SQS has accepted it
+     *
+     * @param body The message body
+     * @param groupId The FIFO message group ID
+     * @param deduplicationId The FIFO deduplication ID
+     * @throws IllegalStateException if SQS rejected the message
+     */
+    public void send(String body, String groupId, String deduplicationId) {
+        PendingMessage message = new PendingMessage(body, groupId, deduplicationId);
+        pending.add(message);
+
+        // Whoever gets a slot sends the next batch; a message added while every slot was
+        // busy is picked up by the re-check each sender makes after releasing its slot
+        while (!pending.isEmpty() && inFlight.tryAcquire()) {
+            try {
+                sendNextBatch();
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        try {
+            message.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void sendNextBatch() {
+        List<PendingMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        PendingMessage message;
+        while (batch.size() < MAX_BATCH_SIZE && (message = pending.poll()) != null) {
+            batch.add(message);
+        }
+        if (!batch.isEmpty()) {
+            sendBatch(batch);
+        }
+    }
+
+    private void sendBatch(List<PendingMessage> batch) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            PendingMessage message = batch.get(i);
+            entries.add(SendMessageBatchRequestEntry.builder()
+                .id(Integer.toString(i))
+                .messageBody(message.body)
+                .messageGroupId(message.groupId)
+                .messageDeduplicationId(message.deduplicationId)
+                .build());
+        }
+
+        try {
+            SendMessageBatchResponse response = sqsClient.get().sendMessageBatch(SendMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+            for (BatchResultErrorEntry error : response.failed()) {
+                batch.get(Integer.parseInt(error.id())).result.completeExceptionally(
+                    new IllegalStateException("SQS rejected message: " + error.code() + " " + error.message()));
+            }
+            // Entries not reported as failed were accepted
+            for (PendingMessage message : batch) {
+                message.result.complete(null);
+            }
+        } catch (RuntimeException e) {
+            for (PendingMessage message : batch) {
+                message.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class PendingMessage {
+        private final String body;
+        private final String groupId;
+        private final String deduplicationId;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private PendingMessage(String body, String groupId, String deduplicationId) {
+            this.body = body;
+            this.groupId = groupId;
+            this.deduplicationId = deduplicationId;
+        }
+    }
+}